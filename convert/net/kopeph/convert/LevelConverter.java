@@ -0,0 +1,66 @@
+package net.kopeph.convert;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import net.kopeph.ld31.LevelFile;
+import net.kopeph.ld31.LevelParser;
+import net.kopeph.ld31.util.ArrayTileStore;
+
+/**
+ * Converts text levels (a .txt file naming a .png of the tiles on its first line) to the binary level format.
+ * See LevelFile and README.md for details.
+ *
+ * Usage: LevelConverter <level.txt> [<level.blv>] [<resource directory>]
+ * The output defaults to the input with its extension replaced, and the image path in the text file is looked up
+ * relative to the resource directory (src by default, like the game looks it up on the class path) if it isn't
+ * found as given.
+ */
+public class LevelConverter {
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	private static final String RESOURCE_DIR = "src";
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: LevelConverter <level.txt> [<level" + LevelFile.EXTENSION + ">] [<resource directory>]");
+			System.exit(2);
+		}
+
+		final File in = new File(args[0]);
+		final File out = new File(args.length > 1? args[1] : args[0].replaceFirst("\\.[^.\\\\/]*$", "") + LevelFile.EXTENSION);
+		final File resources = new File(args.length > 2? args[2] : RESOURCE_DIR);
+
+		final LevelParser parser = new LevelParser(in.getPath());
+		final List<LevelFile.EntityRecord> entities = new ArrayList<>();
+		final String imagePath;
+		try (Reader reader = Files.newBufferedReader(in.toPath(), CHARSET)) {
+			imagePath = parser.parse(reader, (entity) -> { if (entity != null) entities.add(entity); });
+		}
+		for (String error : parser.errors())
+			System.err.println(error);
+		if (imagePath == null)
+			throw new IOException("No level image named in: " + in.getPath());
+
+		File imageFile = new File(imagePath);
+		if (!imageFile.exists())
+			imageFile = new File(resources, imagePath);
+
+		final BufferedImage image = ImageIO.read(imageFile);
+		if (image == null)
+			throw new IOException("Couldn't read level image: " + imageFile.getPath());
+		final int width = image.getWidth(), height = image.getHeight();
+		final int[] tiles = image.getRGB(0, 0, width, height, null, 0, width); //ARGB, the same as PImage.pixels
+
+		new LevelFile(width, height, new ArrayTileStore(width, height, tiles), entities).save(out.getPath());
+		System.out.println("Converted: " + in.getPath() + " -> " + out.getPath() + " (" + width + "x" + height + ", " +
+		                   entities.size() + " entities, " + out.length() + " bytes)");
+	}
+}
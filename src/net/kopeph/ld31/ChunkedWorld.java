@@ -0,0 +1,217 @@
+package net.kopeph.ld31;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A generated world far larger than a level, made of CHUNK_SIZE x CHUNK_SIZE chunks that are generated when they're
+ * first needed and forgotten again once too many others have been used since, so only a bounded part of it is ever
+ * in memory (see Level(ChunkedWorld, long) for how it's played).
+ *
+ * Each chunk is generated from the world seed and its own coordinates alone, so chunks can be generated in any order
+ * and always come out the same. Every chunk is a hub room with a few more rooms hanging off it, plus a hallway to a
+ * doorway on each side it shares with another chunk. Both chunks sharing a side work out the same doorway from the
+ * seed, so their hallways meet, and any rectangle of whole chunks is connected. Floor colors come from a voronoi
+ * diagram whose points are also generated per chunk, using the points of neighbouring chunks too, so the colors carry
+ * on across chunk boundaries.
+ */
+public class ChunkedWorld {
+	public static final int CHUNK_SIZE = 256; //in pixels
+	public static final int DEFAULT_MAX_RESIDENT = 64; //chunks kept in memory, 256 KB each
+
+	private static final int
+		MIN_ROOM_SIZE = 30,
+		MAX_ROOM_SIZE = 120,
+		MAX_ROOMS = 4, //not counting the hub
+		MIN_HALLWAY_SIZE = 3, //number of pixels to either side of the center of a hallway
+		MAX_HALLWAY_SIZE = 7,
+		EDGE_MARGIN = 16, //pixels between a chunk's edges and its rooms or doorways
+		VORONOI_POINTS = 3; //per chunk
+
+	private static final int[] COLORS = { Level.FLOOR_BLACK, Level.FLOOR_RED, Level.FLOOR_GREEN, Level.FLOOR_BLUE };
+
+	public final long seed;
+	public final int chunksWide, chunksHigh;
+	public final int width, height; //in pixels, always a whole number of chunks
+
+	//chunk index -> its tiles, least recently used first
+	private final Map<Integer, int[]> chunks;
+
+	public ChunkedWorld(int width, int height, long seed) {
+		this(width, height, seed, DEFAULT_MAX_RESIDENT);
+	}
+
+	/** @param maxResident the most chunks to keep in memory at once */
+	public ChunkedWorld(int width, int height, long seed, final int maxResident) {
+		this.seed = seed;
+		chunksWide = (width  + CHUNK_SIZE - 1)/CHUNK_SIZE;
+		chunksHigh = (height + CHUNK_SIZE - 1)/CHUNK_SIZE;
+		this.width  = chunksWide*CHUNK_SIZE;
+		this.height = chunksHigh*CHUNK_SIZE;
+
+		chunks = new LinkedHashMap<Integer, int[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, int[]> eldest) {
+				return size() > maxResident;
+			}
+		};
+	}
+
+	/** @return the tile at the given world coordinates, anything outside the world being FLOOR_NONE */
+	public int tile(int x, int y) {
+		if (x < 0 || y < 0 || x >= width || y >= height)
+			return Level.FLOOR_NONE;
+		return chunk(x/CHUNK_SIZE, y/CHUNK_SIZE)[(y%CHUNK_SIZE)*CHUNK_SIZE + x%CHUNK_SIZE];
+	}
+
+	/**
+	 * Copies a rectangle of the world into a row-major array, a chunk at a time so each chunk is only generated once
+	 * @param out has room for w*h tiles, anything outside the world is filled with FLOOR_NONE
+	 */
+	public void copyRegion(int x0, int y0, int w, int h, int[] out) {
+		Arrays.fill(out, 0, w*h, Level.FLOOR_NONE);
+		final int cx1 = Math.max(Math.floorDiv(x0, CHUNK_SIZE), 0), cx2 = Math.min(Math.floorDiv(x0 + w - 1, CHUNK_SIZE), chunksWide - 1);
+		final int cy1 = Math.max(Math.floorDiv(y0, CHUNK_SIZE), 0), cy2 = Math.min(Math.floorDiv(y0 + h - 1, CHUNK_SIZE), chunksHigh - 1);
+
+		for (int cy = cy1; cy <= cy2; ++cy) {
+			for (int cx = cx1; cx <= cx2; ++cx) {
+				final int[] chunk = chunk(cx, cy);
+				final int left = Math.max(cx*CHUNK_SIZE, x0), right = Math.min((cx + 1)*CHUNK_SIZE, x0 + w);
+				final int top  = Math.max(cy*CHUNK_SIZE, y0), bottom = Math.min((cy + 1)*CHUNK_SIZE, y0 + h);
+				for (int y = top; y < bottom; ++y)
+					System.arraycopy(chunk, (y - cy*CHUNK_SIZE)*CHUNK_SIZE + left - cx*CHUNK_SIZE, out, (y - y0)*w + left - x0, right - left);
+			}
+		}
+	}
+
+	/** @return the tiles of the given chunk, row-major, generating it if it isn't in memory */
+	public int[] chunk(int cx, int cy) {
+		final Integer key = cy*chunksWide + cx;
+		int[] chunk = chunks.get(key);
+		if (chunk == null)
+			chunks.put(key, chunk = generate(cx, cy));
+		return chunk;
+	}
+
+	/** @return the number of chunks currently in memory */
+	public int resident() {
+		return chunks.size();
+	}
+
+	private int[] generate(int cx, int cy) {
+		final Random random = new Random(mix(seed, cx, cy, 0));
+		final int[] tiles = new int[CHUNK_SIZE*CHUNK_SIZE];
+		Arrays.fill(tiles, Level.FLOOR_NONE);
+
+		//the hub, somewhere around the middle
+		final int hubW = range(random, MIN_ROOM_SIZE, MAX_ROOM_SIZE/2), hubH = range(random, MIN_ROOM_SIZE, MAX_ROOM_SIZE/2);
+		final int hubX = CHUNK_SIZE/2 - hubW/2 + range(random, -EDGE_MARGIN, EDGE_MARGIN);
+		final int hubY = CHUNK_SIZE/2 - hubH/2 + range(random, -EDGE_MARGIN, EDGE_MARGIN);
+		clearRect(tiles, hubX, hubY, hubW, hubH);
+		final int hx = hubX + hubW/2, hy = hubY + hubH/2;
+
+		//more rooms, each with a hallway to the hub
+		final int rooms = range(random, 1, MAX_ROOMS + 1);
+		for (int r = 0; r < rooms; ++r) {
+			final int rw = range(random, MIN_ROOM_SIZE, MAX_ROOM_SIZE), rh = range(random, MIN_ROOM_SIZE, MAX_ROOM_SIZE);
+			final int rx = range(random, EDGE_MARGIN, CHUNK_SIZE - EDGE_MARGIN - rw), ry = range(random, EDGE_MARGIN, CHUNK_SIZE - EDGE_MARGIN - rh);
+			clearRect(tiles, rx, ry, rw, rh);
+			hallway(tiles, rx + rw/2, ry + rh/2, hx, hy, range(random, MIN_HALLWAY_SIZE, MAX_HALLWAY_SIZE + 1));
+		}
+
+		//doorways to the neighbouring chunks, at the same place along the shared side as the neighbour puts them
+		if (cx > 0) { //left
+			final Random door = new Random(mix(seed, cx, cy, 1));
+			final int d = range(door, EDGE_MARGIN, CHUNK_SIZE - EDGE_MARGIN), size = range(door, MIN_HALLWAY_SIZE, MAX_HALLWAY_SIZE + 1);
+			hallway(tiles, 0, d, hx, hy, size);
+		}
+		if (cx + 1 < chunksWide) { //right
+			final Random door = new Random(mix(seed, cx + 1, cy, 1));
+			final int d = range(door, EDGE_MARGIN, CHUNK_SIZE - EDGE_MARGIN), size = range(door, MIN_HALLWAY_SIZE, MAX_HALLWAY_SIZE + 1);
+			hallway(tiles, CHUNK_SIZE - 1, d, hx, hy, size);
+		}
+		if (cy > 0) { //top
+			final Random door = new Random(mix(seed, cx, cy, 2));
+			final int d = range(door, EDGE_MARGIN, CHUNK_SIZE - EDGE_MARGIN), size = range(door, MIN_HALLWAY_SIZE, MAX_HALLWAY_SIZE + 1);
+			hallway(tiles, hx, hy, d, 0, size);
+		}
+		if (cy + 1 < chunksHigh) { //bottom
+			final Random door = new Random(mix(seed, cx, cy + 1, 2));
+			final int d = range(door, EDGE_MARGIN, CHUNK_SIZE - EDGE_MARGIN), size = range(door, MIN_HALLWAY_SIZE, MAX_HALLWAY_SIZE + 1);
+			hallway(tiles, hx, hy, d, CHUNK_SIZE - 1, size);
+		}
+
+		//remove one-pixel-wide artifacts, the same as Level's generator
+		for (int y = CHUNK_SIZE - 1; y --> 1;) {
+			for (int x = CHUNK_SIZE - 1; x --> 1;) {
+				final int i = y*CHUNK_SIZE + x;
+				if (tiles[i] == Level.FLOOR_NONE &&
+				    ((tiles[i + 1] != Level.FLOOR_NONE && tiles[i - 1] != Level.FLOOR_NONE) ||
+				     (tiles[i + CHUNK_SIZE] != Level.FLOOR_NONE && tiles[i - CHUNK_SIZE] != Level.FLOOR_NONE)))
+					tiles[i] = Level.FLOOR_BLACK;
+			}
+		}
+
+		color(tiles, cx, cy);
+		return tiles;
+	}
+
+	//colors the floor of a chunk by the nearest voronoi point (by manhattan distance) of it and its neighbours
+	private void color(int[] tiles, int cx, int cy) {
+		final int[] px = new int[9*VORONOI_POINTS], py = new int[9*VORONOI_POINTS], colors = new int[9*VORONOI_POINTS];
+		int n = 0;
+		for (int ny = cy - 1; ny <= cy + 1; ++ny) {
+			for (int nx = cx - 1; nx <= cx + 1; ++nx) {
+				if (nx < 0 || ny < 0 || nx >= chunksWide || ny >= chunksHigh) continue;
+				final Random random = new Random(mix(seed, nx, ny, 3));
+				for (int v = 0; v < VORONOI_POINTS; ++v, ++n) {
+					px[n] = (nx - cx)*CHUNK_SIZE + random.nextInt(CHUNK_SIZE);
+					py[n] = (ny - cy)*CHUNK_SIZE + random.nextInt(CHUNK_SIZE);
+					colors[n] = COLORS[random.nextInt(COLORS.length)];
+				}
+			}
+		}
+
+		for (int i = 0; i < tiles.length; ++i) {
+			if (tiles[i] == Level.FLOOR_NONE) continue;
+			final int x = i%CHUNK_SIZE, y = i/CHUNK_SIZE;
+			int minDistance = Integer.MAX_VALUE;
+			for (int v = 0; v < n; ++v) {
+				final int distance = Math.abs(px[v] - x) + Math.abs(py[v] - y);
+				if (distance < minDistance) {
+					minDistance = distance;
+					tiles[i] = colors[v];
+				}
+			}
+		}
+	}
+
+	//clears an L-shaped hallway, horizontally along y1 and then vertically along x2, clipped to the chunk
+	private static void hallway(int[] tiles, int x1, int y1, int x2, int y2, int size) {
+		clearRect(tiles, Math.min(x1, x2) - size, y1 - size, Math.abs(x2 - x1) + size*2 + 1, size*2 + 1);
+		clearRect(tiles, x2 - size, Math.min(y1, y2) - size, size*2 + 1, Math.abs(y2 - y1) + size*2 + 1);
+	}
+
+	private static void clearRect(int[] tiles, int x0, int y0, int w, int h) {
+		final int x1 = Math.max(x0, 0), x2 = Math.min(x0 + w, CHUNK_SIZE);
+		for (int y = Math.max(y0, 0); y < Math.min(y0 + h, CHUNK_SIZE); ++y)
+			Arrays.fill(tiles, y*CHUNK_SIZE + x1, y*CHUNK_SIZE + x2, Level.FLOOR_BLACK);
+	}
+
+	//a random int from min (inclusive) to max (exclusive)
+	private static int range(Random random, int min, int max) {
+		return min + random.nextInt(max - min);
+	}
+
+	//the seed for one of the random sequences belonging to a chunk, well mixed so that neighbouring chunks look unrelated
+	private static long mix(long seed, int cx, int cy, int stream) {
+		long z = seed + 0x9E3779B97F4A7C15L*(((long)cx << 32 ^ cy & 0xFFFFFFFFL)*4 + stream + 1);
+		z = (z ^ z >>> 30)*0xBF58476D1CE4E5B9L;
+		z = (z ^ z >>> 27)*0x94D049BB133111EBL;
+		return z ^ z >>> 31;
+	}
+}
@@ -0,0 +1,267 @@
+package net.kopeph.ld31;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import net.kopeph.ld31.entity.Enemy;
+import net.kopeph.ld31.graphics.LevelMipmap;
+import net.kopeph.ld31.graphics.Renderer;
+import net.kopeph.ld31.nav.FlowField;
+import net.kopeph.ld31.nav.LineOfSight;
+import net.kopeph.ld31.nav.NavGraph;
+import net.kopeph.ld31.nav.OccupancyPyramid;
+import net.kopeph.ld31.nav.WallSegments;
+import net.kopeph.ld31.util.BitGrid;
+import net.kopeph.ld31.util.RouteNode;
+import net.kopeph.ld31.util.SpanIndex;
+import net.kopeph.ld31.util.Vector2;
+
+/**
+ * Consistency check for level edits (run with --check-edits).
+ *
+ * Makes random edits to a fixed set of seeded levels with Level.fillRect(): single tiles, door sized rectangles and
+ * whole rooms, of wall and of floor. After each edit, everything the level keeps up to date incrementally is compared
+ * against the same thing built from scratch from the edited tiles, as are the legs of patrol routes that enemies have
+ * planned, and every so often the renderer's frame (which reuses its base layer and cached lights across edits) is
+ * compared against one drawn with its caches thrown away.
+ * Mismatches are reported alongside the average cost of an edit and of a full rebuild of the indexes.
+ */
+public class EditCheck {
+	private static final long[] SEEDS = { 1, 2, 3 };
+	private static final int[][] LEVEL_SIZES = { { 800, 600 }, { 1920, 1080 } };
+	private static final int EDITS = 100; //per level
+	private static final int RENDER_EVERY = 10; //edits between frame comparisons
+	private static final int PATHS = 20; //random routes compared after each edit
+	private static final int PATROLS = 4, PATROL_NODES = 4; //enemies with routes added to each level, since generated levels have none
+	private static final int[] COLORS = { Level.FLOOR_NONE, Level.FLOOR_NONE, Level.FLOOR_WHITE, Level.FLOOR_RED, Level.FLOOR_GREEN, Level.FLOOR_BLUE };
+
+	private EditCheck() {
+		throw new AssertionError("No Instantiation of: " + getClass().getName()); //$NON-NLS-1$
+	}
+
+	/** @return the total number of mismatches across all edits */
+	public static long run() {
+		final LD31 context = LD31.getContext();
+		final Renderer renderer = context.renderer;
+		final int width = context.lastWidth, height = context.lastHeight;
+		final int[] frame = new int[width*height], fresh = new int[width*height];
+
+		renderer.interpolation = 1; //draw entities exactly where they are
+		renderer.lightDetail = false; //reduced detail depends on how long a light has waited, not just on the level
+		renderer.farLightInterval = 1;
+
+		long totalMismatches = 0, totalEdit = 0, totalRebuild = 0;
+		int edits = 0, levels = 0;
+
+		for (long seed : SEEDS) {
+			for (int[] size : LEVEL_SIZES) {
+				final Level level = new Level(size[0], size[1], seed);
+				final Random random = new Random(seed);
+				for (int p = 0; p < PATROLS; ++p) {
+					final List<RouteNode> route = new ArrayList<>();
+					for (int n = 0; n < PATROL_NODES; ++n)
+						route.add(new RouteNode(randomWalkable(level, random), 0));
+					level.enemies.add(new Enemy(level, route.get(0).pos, Level.FLOOR_RED, route));
+				}
+				final int viewX = level.player.x() - width/2, viewY = level.player.y() - height/2;
+				renderer.polygonLighting = levels++%2 == 1; //both kinds of light are cached, so check both
+				renderer.calculateLighting(level, viewX, viewY);
+
+				long mismatches = 0, edit = 0, rebuild = 0;
+				for (int e = 0; e < EDITS; ++e) {
+					//make sure the flow field is built, so it has to notice the edit rather than being rebuilt anyway
+					level.playerField.reroot(level.player.x(), level.player.y());
+					level.playerField.distance(level.player.x(), level.player.y());
+					//and that every enemy has its whole route planned, so there are legs for the edit to make out of date
+					for (Enemy enemy : level.enemies)
+						enemy.planLegs();
+
+					//most edits are on screen, where the renderer's caches are, some anywhere in the level
+					final int kind = random.nextInt(3);
+					final int w = kind == 0? 1 : kind == 1? 4 + random.nextInt(12) : 20 + random.nextInt(80);
+					final int h = kind == 0? 1 : kind == 1? 4 + random.nextInt(12) : 20 + random.nextInt(80);
+					final boolean onScreen = random.nextInt(4) > 0;
+					final int x = onScreen? viewX + random.nextInt(width ) : random.nextInt(level.LEVEL_WIDTH ) - w/2;
+					final int y = onScreen? viewY + random.nextInt(height) : random.nextInt(level.LEVEL_HEIGHT) - h/2;
+					final int color = COLORS[random.nextInt(COLORS.length)];
+
+					long start = System.nanoTime();
+					level.fillRect(x, y, w, h, color);
+					edit += System.nanoTime() - start;
+
+					start = System.nanoTime();
+					final Rebuilt rebuilt = new Rebuilt(level);
+					rebuild += System.nanoTime() - start;
+
+					mismatches += compare(level, rebuilt, random);
+
+					if (e%RENDER_EVERY == RENDER_EVERY - 1) {
+						renderer.calculateLighting(level, viewX, viewY);
+						renderer.applyTextureAlt(frame);
+						renderer.discardCaches();
+						renderer.calculateLighting(level, viewX, viewY);
+						renderer.applyTextureAlt(fresh);
+						for (int i = 0; i < frame.length; ++i) {
+							if (frame[i] != fresh[i]) {
+								System.out.println("  frame differs after edit " + e); //$NON-NLS-1$
+								++mismatches;
+								break;
+							}
+						}
+					}
+				}
+
+				totalMismatches += mismatches;
+				totalEdit += edit;
+				totalRebuild += rebuild;
+				edits += EDITS;
+				System.out.printf("seed %d, %dx%d: EDIT %.3f us, REBUILD %.3f ms, %s\n", seed, size[0], size[1], //$NON-NLS-1$
+					edit/EDITS/1000.0, rebuild/EDITS/1000000.0, mismatches == 0? "OK" : mismatches + " MISMATCHED"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+
+		System.out.printf("EDIT_CHECK: %d edits, %d mismatches\n", edits, totalMismatches); //$NON-NLS-1$
+		System.out.printf("EDIT_CHECK_EDIT_AVG: %.3f us\n", totalEdit/(double)edits/1000.0); //$NON-NLS-1$
+		System.out.printf("EDIT_CHECK_REBUILD_AVG: %.3f ms\n", totalRebuild/(double)edits/1000000.0); //$NON-NLS-1$
+		System.out.println();
+
+		return totalMismatches;
+	}
+
+	//everything Level.fillRect() keeps up to date, built from scratch from the level's tiles the same way the level first built it
+	private static class Rebuilt {
+		final BitGrid walkable;
+		final LineOfSight lineOfSight;
+		final OccupancyPyramid occupancy;
+		final WallSegments wallSegments;
+		final NavGraph navGraph;
+		final FlowField playerField;
+		final SpanIndex spans;
+		final LevelMipmap mipmap;
+
+		Rebuilt(Level level) {
+			walkable = level.erodeFloor();
+			lineOfSight = new LineOfSight(level);
+			occupancy = new OccupancyPyramid(level);
+			wallSegments = new WallSegments(level);
+			navGraph = new NavGraph(level);
+			playerField = new FlowField(level);
+			spans = SpanIndex.of(level.tiles, Integer.MAX_VALUE);
+			mipmap = new LevelMipmap(level.tiles);
+		}
+	}
+
+	//returns the number of the level's indexes that don't match the rebuilt ones
+	private static int compare(Level level, Rebuilt rebuilt, Random random) {
+		final int width = level.LEVEL_WIDTH, height = level.LEVEL_HEIGHT;
+		int mismatches = 0;
+
+		boolean walls = true, walkable = true, lineOfSight = true, occupancy = true;
+		final int[] a = new int[4], b = new int[4];
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x) {
+				walls &= level.walls.get(x, y) == (level.tiles.get(x, y) == Level.FLOOR_NONE);
+				walkable &= level.walkable(x, y) == rebuilt.walkable.get(x, y);
+				lineOfSight &= level.lineOfSight.blockedColumn(x, y, y) == rebuilt.lineOfSight.blockedColumn(x, y, y);
+				final boolean clear = level.occupancy.clearBlock(x, y, a);
+				occupancy &= clear == rebuilt.occupancy.clearBlock(x, y, b) && (!clear || a[0] == b[0] && a[1] == b[1] && a[2] == b[2] && a[3] == b[3]);
+			}
+		}
+		mismatches += report(walls, "walls"); //$NON-NLS-1$
+		mismatches += report(walkable, "walkable tiles"); //$NON-NLS-1$
+		mismatches += report(lineOfSight, "line of sight"); //$NON-NLS-1$
+		mismatches += report(occupancy, "occupancy pyramid"); //$NON-NLS-1$
+
+		//the same segments, in the same buckets, though not necessarily with the same indices
+		boolean segments = level.wallSegments.count == rebuilt.wallSegments.count;
+		for (int by = 0; segments && by <= height/WallSegments.BUCKET_SIZE; ++by)
+			for (int bx = 0; segments && bx <= width/WallSegments.BUCKET_SIZE; ++bx)
+				segments = segmentsIn(level.wallSegments, bx, by).equals(segmentsIn(rebuilt.wallSegments, bx, by));
+		mismatches += report(segments, "wall segments"); //$NON-NLS-1$
+
+		boolean spans = level.spans == null || level.spans.size() == rebuilt.spans.size();
+		for (int y = 0; spans && level.spans != null && y < height; ++y)
+			spans = level.spans.first(y) == rebuilt.spans.first(y);
+		for (int i = 0; spans && level.spans != null && i < level.spans.size(); ++i)
+			spans = level.spans.start(i) == rebuilt.spans.start(i) && level.spans.color(i) == rebuilt.spans.color(i);
+		mismatches += report(spans, "span index"); //$NON-NLS-1$
+		mismatches += report(level.mipmap.sameAs(rebuilt.mipmap), "mipmap"); //$NON-NLS-1$
+
+		//distances around the player, which the level's field only has right if it noticed the edit
+		final int px = level.player.x(), py = level.player.y(), r = rebuilt.playerField.radius;
+		rebuilt.playerField.reroot(px, py);
+		boolean field = true;
+		for (int y = py - r; y <= py + r; ++y)
+			for (int x = px - r; x <= px + r; ++x)
+				field &= level.playerField.distance(x, y) == rebuilt.playerField.distance(x, y);
+		mismatches += report(field, "player flow field"); //$NON-NLS-1$
+
+		//nodes can be numbered differently, which can change which of two equally short routes is found, but not how long it is
+		boolean nav = level.navGraph.size() == rebuilt.navGraph.size();
+		for (int i = 0; nav && i < PATHS; ++i) {
+			final Vector2 s = randomWalkable(level, random), g = randomWalkable(level, random);
+			final int sx = (int)s.x, sy = (int)s.y, gx = (int)g.x, gy = (int)g.y;
+			nav = length(sx, sy, level.navGraph.path(sx, sy, gx, gy)) == length(sx, sy, rebuilt.navGraph.path(sx, sy, gx, gy));
+		}
+		mismatches += report(nav, "navigation graph"); //$NON-NLS-1$
+
+		//a leg an enemy kept through the edit has to be as short as one planned now, or the edit should have made it forget it
+		boolean routes = true;
+		for (Enemy enemy : level.enemies) {
+			for (int i = 0; routes && enemy.route() != null && i < enemy.route().size(); ++i) {
+				final List<Vector2> leg = enemy.cachedLeg(i);
+				if (leg == null) continue;
+				final Vector2 start = enemy.cachedLegStart(i), goal = enemy.route().get(i).pos;
+				final int sx = (int)start.x, sy = (int)start.y;
+				final List<Vector2> planned = rebuilt.navGraph.path(sx, sy, (int)Math.round(goal.x), (int)Math.round(goal.y));
+				routes = length(sx, sy, leg) == length(sx, sy, planned == null? Collections.<Vector2>emptyList() : planned);
+			}
+		}
+		mismatches += report(routes, "enemy routes"); //$NON-NLS-1$
+
+		return mismatches;
+	}
+
+	private static int report(boolean matches, String what) {
+		if (matches) return 0;
+		System.out.println("  " + what + " differ"); //$NON-NLS-1$ //$NON-NLS-2$
+		return 1;
+	}
+
+	//returns the segments in one bucket as sorted strings, so two sets of them can be compared regardless of their indices
+	private static List<String> segmentsIn(WallSegments segments, int bx, int by) {
+		final int x = bx*WallSegments.BUCKET_SIZE, y = by*WallSegments.BUCKET_SIZE;
+		final int[] found = segments.near(x, y, x, y, new int[64]);
+		final List<String> list = new ArrayList<>();
+		for (int k = 0; found[k] >= 0; ++k) {
+			final int i = found[k];
+			list.add(segments.x1[i] + "," + segments.y1[i] + "," + segments.x2[i] + "," + segments.y2[i] + "," + segments.floorAfter[i]); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		}
+		Collections.sort(list);
+		return list;
+	}
+
+	//returns a random walkable tile of the level
+	private static Vector2 randomWalkable(Level level, Random random) {
+		int x, y;
+		do {
+			x = random.nextInt(level.LEVEL_WIDTH);
+			y = random.nextInt(level.LEVEL_HEIGHT);
+		} while (!level.walkable(x, y));
+		return new Vector2(x, y);
+	}
+
+	//returns the number of steps along a route from (x, y), or -1 if there isn't one
+	private static int length(int x, int y, List<Vector2> route) {
+		if (route == null) return -1;
+		int steps = 0;
+		for (Vector2 v : route) {
+			steps += Math.max(Math.abs((int)v.x - x), Math.abs((int)v.y - y));
+			x = (int)v.x;
+			y = (int)v.y;
+		}
+		return steps;
+	}
+}
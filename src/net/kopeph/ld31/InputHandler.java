@@ -20,7 +20,9 @@ public final class InputHandler {
 		CTL_RESET    = 4,
 		CTL_PAUSE    = 5,
 		CTL_ESCAPE   = 6,
-		CTL_UNCAUGHT = 7;
+		CTL_RETRY    = 7,
+		CTL_MAP      = 8,
+		CTL_UNCAUGHT = 9;
 
 	public static String getControlString(int controlCode) {
 		switch (controlCode) {
@@ -31,6 +33,8 @@ public final class InputHandler {
 			case CTL_RESET : return " RESET";
 			case CTL_PAUSE : return " PAUSE";
 			case CTL_ESCAPE: return "ESCAPE";
+			case CTL_RETRY : return " RETRY";
+			case CTL_MAP   : return "   MAP";
 		}
 		return "UNCAUGHT";
 	}
@@ -85,8 +89,26 @@ public final class InputHandler {
 
 	/** Loads saved key bindings from system preferences (must be called first, BAE) */
 	private void loadKeyIdBindings() {
-		if (!pullFromDisk())
+		if (!pullFromDisk()) {
 			resetKeyIdBindings();
+		} else {
+			//bindings saved before there was a retry or map control
+			bindFreeKeyId(new int[] { 'T', 'Y', 'G', 'H' }, CTL_RETRY);
+			bindFreeKeyId(new int[] { 'M', 'N', 'B', 'V' }, CTL_MAP  );
+		}
+	}
+
+	/** Binds the first of the given keyIds which isn't already bound to the given controlCode, if it has no bindings yet */
+	private void bindFreeKeyId(int[] keyIds, int controlCode) {
+		if (!getBoundKeyIdsFor(controlCode).isEmpty())
+			return;
+		for (int keyId : keyIds) {
+			if (!keyIdBindings.containsKey(keyId)) {
+				bindKeyId(keyId, controlCode);
+				return;
+			}
+		}
+		//all taken, so leave it for the player to bind in the settings menu
 	}
 
 	public void resetKeyIdBindings() {
@@ -98,6 +120,8 @@ public final class InputHandler {
 		bindKeyIds(new int[] { 'R', ' ', InputHandler.K_ENTER }, CTL_RESET  );
 		bindKeyIds(new int[] { 'P',      InputHandler.K_TAB   }, CTL_PAUSE  );
 		bindKeyId(K_ESC, CTL_ESCAPE);
+		bindKeyId('T', CTL_RETRY);
+		bindKeyId('M', CTL_MAP);
 	}
 
 
@@ -114,6 +138,18 @@ public final class InputHandler {
 				context.setGameState(LD31.ST_RESET);
 		});
 
+		bindControlCode(InputHandler.CTL_RETRY, (down) -> {
+			if (context.gameState() == LD31.ST_RUNNING ||
+				context.gameState() == LD31.ST_WIN ||
+				context.gameState() == LD31.ST_DIE)
+				context.setGameState(LD31.ST_RETRY);
+		});
+
+		bindControlCode(InputHandler.CTL_MAP, (down) -> {
+			if (context.gameState() == LD31.ST_RUNNING)
+				context.toggleMapView();
+		});
+
 		bindControlCode(InputHandler.CTL_PAUSE, (down) -> {
 			if (context.gameState() == LD31.ST_RUNNING)
 				context.setGameState(LD31.ST_PAUSE);
@@ -0,0 +1,163 @@
+package net.kopeph.ld31;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A recording of one attempt at a level: enough to regenerate the same level (the random seed, plus the
+ * level file or free play size) and the movement controls held down on every simulation tick, so the
+ * attempt can be played back exactly, with or without a window.
+ *
+ * Controls are stored run-length encoded, since they rarely change from one tick to the next. Every
+ * CHECK_INTERVAL ticks a hash of all entity positions is stored too, so a replay can tell whether the
+ * current code still produces the same trajectories as the code that recorded it.
+ */
+public final class InputLog {
+	//bit flags for the movement controls held down during a tick
+	public static final int
+		UP    = 1,
+		DOWN  = 2,
+		LEFT  = 4,
+		RIGHT = 8;
+
+	public static final int CHECK_INTERVAL = 60; //ticks between trajectory checksums
+
+	private static final int MAGIC = 0x4252494C; //"BRIL"
+	private static final int VERSION = 4; //2: free play entities are placed from their own seed (see Level), 3: so is the attempt (see LD31), 4: entities are placed from a SpawnMask
+
+	public final long seed;
+	public final String levelPath; //null for free play levels
+	public final int levelWidth, levelHeight; //only meaningful for free play levels
+
+	private byte[] controls = new byte[1024];
+	private int length;
+	private int[] checksums = new int[16];
+	private int checksumCount;
+
+	public InputLog(long seed, String levelPath, int levelWidth, int levelHeight) {
+		this.seed = seed;
+		this.levelPath = levelPath;
+		this.levelWidth = levelWidth;
+		this.levelHeight = levelHeight;
+	}
+
+	/** @return the number of ticks recorded */
+	public int length() {
+		return length;
+	}
+
+	/** Appends the controls held during the next tick */
+	public void record(int flags) {
+		if (length == controls.length)
+			controls = Arrays.copyOf(controls, length*2);
+		controls[length++] = (byte)flags;
+	}
+
+	/** @return the controls held during the given tick */
+	public int controls(int tick) {
+		return controls[tick];
+	}
+
+	/** Appends a trajectory checksum, should be called every CHECK_INTERVAL ticks */
+	public void recordChecksum(int checksum) {
+		if (checksumCount == checksums.length)
+			checksums = Arrays.copyOf(checksums, checksumCount*2);
+		checksums[checksumCount++] = checksum;
+	}
+
+	/** @return true if the given checksum matches the one recorded at the same point, or if none was recorded there */
+	public boolean verifyChecksum(int index, int checksum) {
+		return index >= checksumCount || checksums[index] == checksum;
+	}
+
+	public void save(String path) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeLong(seed);
+			out.writeBoolean(levelPath != null);
+			if (levelPath != null) {
+				out.writeUTF(levelPath);
+			} else {
+				out.writeInt(levelWidth);
+				out.writeInt(levelHeight);
+			}
+
+			//controls as (flags, run length) pairs
+			out.writeInt(length);
+			for (int i = 0; i < length;) {
+				int run = 1;
+				while (i + run < length && controls[i + run] == controls[i])
+					++run;
+				out.writeByte(controls[i]);
+				writeVarInt(out, run);
+				i += run;
+			}
+
+			out.writeInt(checksumCount);
+			for (int i = 0; i < checksumCount; ++i)
+				out.writeInt(checksums[i]);
+		}
+	}
+
+	public static InputLog load(String path) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+			if (in.readInt() != MAGIC)
+				throw new IOException("Not an input log: " + path); //$NON-NLS-1$
+			final int version = in.readByte();
+			if (version != VERSION)
+				throw new IOException("Unsupported input log version " + version + ": " + path); //$NON-NLS-1$ //$NON-NLS-2$
+
+			final long seed = in.readLong();
+			final InputLog log;
+			if (in.readBoolean())
+				log = new InputLog(seed, in.readUTF(), 0, 0);
+			else
+				log = new InputLog(seed, null, in.readInt(), in.readInt());
+
+			final int length = in.readInt();
+			log.controls = new byte[Math.max(length, 1)];
+			while (log.length < length) {
+				final byte flags = in.readByte();
+				final int run = readVarInt(in);
+				if (run <= 0 || log.length + run > length)
+					throw new IOException("Corrupt control run in input log: " + path); //$NON-NLS-1$
+				Arrays.fill(log.controls, log.length, log.length + run, flags);
+				log.length += run;
+			}
+
+			log.checksumCount = in.readInt();
+			log.checksums = new int[Math.max(log.checksumCount, 1)];
+			for (int i = 0; i < log.checksumCount; ++i)
+				log.checksums[i] = in.readInt();
+
+			return log;
+		}
+	}
+
+	//7 bits per byte, low bits first, high bit set on every byte but the last (also used by LevelFile)
+	static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarInt(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			final int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed variable length integer"); //$NON-NLS-1$
+	}
+}
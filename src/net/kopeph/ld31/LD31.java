@@ -1,16 +1,24 @@
 package net.kopeph.ld31;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import net.kopeph.ld31.entity.Enemy;
 import net.kopeph.ld31.entity.Entity;
+import net.kopeph.ld31.graphics.GoldenFrames;
 import net.kopeph.ld31.graphics.HUD;
+import net.kopeph.ld31.graphics.QualityGovernor;
 import net.kopeph.ld31.graphics.Renderer;
 import net.kopeph.ld31.menu.EndScreen;
 import net.kopeph.ld31.menu.Menu;
 import net.kopeph.ld31.menu.instances.*;
+import net.kopeph.ld31.util.Benchmark;
 import net.kopeph.ld31.util.Profiler;
 import processing.core.PApplet;
+import processing.core.PImage;
 
 /** Everything inside here works like it does in processing */
 public class LD31 extends PApplet {
@@ -18,8 +26,13 @@ public class LD31 extends PApplet {
 
 	private static final String BG_MUSIC = "res/sound/music.mp3"; //file path
 	public static final String TEST_LEVEL = "res/test-level.txt"; //file path
+	public static final String[] CAMPAIGN_LEVELS = { TEST_LEVEL }; //file paths, in the order they're listed
+	private static final String USAGE = "usage: blockaderunner [--benchmark] [--record <file> | --replay <file> [--headless]] [--golden <directory>] " + //$NON-NLS-1$
+	                                    "[--frame-budget <ms>] [--polygon-lights] [--level-cache <directory>] [--check-edits] [--save-state <file> | --load-state <file>]"; //$NON-NLS-1$
+	public static final int THUMBNAIL_WIDTH = 80, THUMBNAIL_HEIGHT = 50; //the most a level's thumbnail can take up, in pixels
 
 	public static final int // Game state enum
+		ST_RETRY      = -3,  // Same level needs restored from its snapshot
 		ST_RESET_HARD = -2,  // Window size has changed
 		ST_RESET      = -1,  // Level needs regenerated
 		ST_RUNNING    =  0,  // Normal Condition
@@ -32,16 +45,44 @@ public class LD31 extends PApplet {
 		ST_FREE_PLAY  =  7;  // Displaying Free Play Menu
 
 	private static LD31 context; //for static access so we don't have to pass this reference around so much
+	private static boolean benchmark; //set by the --benchmark command line flag
+	private static String recordPath, replayPath; //set by the --record and --replay command line flags
+	private static boolean headless; //set by the --headless command line flag
+	private static String goldenPath; //set by the --golden command line flag
+	private static double frameBudget; //set by the --frame-budget command line flag, in milliseconds (0 to leave quality alone)
+	private static boolean polygonLights; //set by the --polygon-lights command line flag
+	private static String levelCachePath; //set by the --level-cache command line flag
+	private static boolean checkEdits; //set by the --check-edits command line flag
+	private static String saveStatePath, loadStatePath; //set by the --save-state and --load-state command line flags
 
 	private Profiler profiler;
+	private QualityGovernor governor; //null unless a frame budget was given
+	private LevelCache levelCache; //null unless a level cache directory was given
 	private InputHandler input;
 	private Audio audio;
 	private Level level;
+	private LevelSnapshot snapshot; //the current level as it was first built, for retrying it (see LevelSnapshot)
 	private EndScreen win, die;
 	private Menu mainMenu, settingsMenu, pauseMenu, dummyCampaignMenu, freePlayMenu;
 	private volatile int gameState;
 	private int fadePhase;
+
+	//fixed timestep simulation, so game speed doesn't depend on how fast we can render
+	public static final int TICK_RATE = 60; //simulation ticks per second
+	private static final long TICK_NANOS = 1000000000L/TICK_RATE;
+	private static final int MAX_TICKS_PER_FRAME = 5;
+	private static final long PLAY_SEED = 0x2545F4914F6CDD1DL; //mixed into a level's seed once it's built, for the attempt itself
+	private long tickAccumulator, lastFrameTime;
+	private int lastTickFrame = -2;
+
+	//recording and playback of attempts (see InputLog)
+	private InputLog recording, replay;
+	private int tickCount, checksumIndex, checksumMismatches, firstMismatchTick;
+
 	private String currentLevel;
+	private LevelInfo[] campaignLevels; //read at startup, for the campaign menu
+	private final Map<String, PImage> thumbnails = new HashMap<>(); //of the last level built of each kind, see thumbnail()
+	private boolean mapView; //whether the whole level is drawn small instead of the lit view around the player
 	private int freePlayWidth = 800, freePlayHeight = 600;
 
 	public Renderer renderer;
@@ -50,8 +91,13 @@ public class LD31 extends PApplet {
 	public void setup() {
 		context = this;
 		renderer = new Renderer();
+		renderer.polygonLighting = polygonLights;
 		audio = new Audio();
 		profiler = new Profiler();
+		if (frameBudget > 0)
+			governor = new QualityGovernor(frameBudget);
+		if (levelCachePath != null)
+			levelCache = new LevelCache(new File(levelCachePath), LevelCache.DEFAULT_MAX_BYTES);
 
 		size(800, 600);
 		frameRate(60);
@@ -72,6 +118,15 @@ public class LD31 extends PApplet {
 		//setup behaviors for keyboard controls
 		input = new InputHandler();
 
+		//the campaign menu lists every level with its size, enemies and a thumbnail, which can all be read without loading them
+		campaignLevels = LevelInfo.readAll(CAMPAIGN_LEVELS);
+		for (LevelInfo info : campaignLevels) {
+			for (String error : info.errors)
+				System.err.println(error);
+			if (info.mipmap != null && !headless)
+				thumbnails.put(info.path, info.mipmap.thumbnail(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT));
+		}
+
 		//setup game menus
 		mainMenu = new MainMenu();
 		freePlayMenu = new FreePlayMenu();
@@ -80,7 +135,27 @@ public class LD31 extends PApplet {
 		setupSettingsMenu();
 		HUD.updateFooterText(input);
 
+		if (goldenPath != null) {
+			resize(); //render the golden frames at the initial window size
+			System.exit(GoldenFrames.run(goldenPath) == 0? 0 : 1);
+		}
+		if (checkEdits) {
+			resize(); //compare frames at the initial window size
+			System.exit(EditCheck.run() == 0? 0 : 1);
+		}
+
 		gameState = ST_MENU;
+		if (replayPath != null) {
+			replay = loadReplay();
+			gameState = ST_RESET_HARD; //skip the menus and go straight to the recorded level
+		} else if (loadStatePath != null) {
+			snapshot = loadSnapshot();
+			if (snapshot != null) {
+				currentLevel = snapshot.levelPath; //so that restarting gives a new level of the same kind
+				setLevelSize(snapshot.levelWidth, snapshot.levelHeight);
+				gameState = ST_RETRY; //skip the menus and go straight to the saved level
+			}
+		}
 	}
 
 	/** helper function for setup(), which is also called by the "Revert to Defaults" button in the settings menu */
@@ -108,11 +183,40 @@ public class LD31 extends PApplet {
 		gameState = state;
 	}
 
+	/** @return the quality governor, or null if rendering quality isn't being adjusted automatically */
+	public QualityGovernor governor() {
+		return governor;
+	}
+
+	/** @return the cache of generated level layouts, or null if layouts aren't being cached */
+	public LevelCache levelCache() {
+		return levelCache;
+	}
+
 	public void setLevelSize(int width, int height) {
 		freePlayWidth = width;
 		freePlayHeight = height;
 	}
 
+	/** @return what's known about each of the campaign's levels without loading them, in the order of CAMPAIGN_LEVELS */
+	public LevelInfo[] campaignLevels() {
+		return campaignLevels;
+	}
+
+	/**
+	 * @return a picture of the last level built from the given level file (or of the file as read at startup, see LevelInfo),
+	 *         or at the given free play size if the path is null, at most THUMBNAIL_WIDTH x THUMBNAIL_HEIGHT, or null if there
+	 *         hasn't been one yet
+	 */
+	public PImage thumbnail(String levelPath, int levelWidth, int levelHeight) {
+		return thumbnails.get(levelPath != null? levelPath : levelWidth + "x" + levelHeight); //$NON-NLS-1$
+	}
+
+	/** Switches between the normal view and the map view, which shows the whole level at once */
+	public void toggleMapView() {
+		mapView = !mapView;
+	}
+
 	public void setLevelPath(String path) {
 		currentLevel = path;
 	}
@@ -134,16 +238,17 @@ public class LD31 extends PApplet {
 			resize(); //allows for free window resizing without affecting gameplay
 
 		switch (gameState) {
-			case ST_RESET_HARD: resize(); reset(); break; //order here is important
-			case ST_RESET:      reset();           break;
-			case ST_RUNNING:    drawRunning();     break;
-			case ST_WIN:        drawWin();         break;
-			case ST_DIE:        drawDie();         break;
-			case ST_PAUSE:      drawPause();       break;
-			case ST_MENU:       drawMenu();        break;
-			case ST_SETTINGS:   drawSettings();    break;
-			case ST_CAMPAIGN:   drawCampaign();    break;
-			case ST_FREE_PLAY:  drawFreePlay();    break;
+			case ST_RESET_HARD: resize(); reset(false); break; //order here is important
+			case ST_RESET:      reset(false);           break;
+			case ST_RETRY:      reset(true);            break;
+			case ST_RUNNING:    drawRunning();          break;
+			case ST_WIN:        drawWin();              break;
+			case ST_DIE:        drawDie();              break;
+			case ST_PAUSE:      drawPause();            break;
+			case ST_MENU:       drawMenu();             break;
+			case ST_SETTINGS:   drawSettings();         break;
+			case ST_CAMPAIGN:   drawCampaign();         break;
+			case ST_FREE_PLAY:  drawFreePlay();         break;
 		}
 
 		HUD.render();
@@ -156,39 +261,195 @@ public class LD31 extends PApplet {
 		renderer.cropTextures(lastWidth, lastHeight);
 	}
 
-	/** Reloads the current level completely */
-	private void reset() {
-		if (currentLevel == null) level = new Level(freePlayWidth, freePlayHeight);
-		else                      level = new Level(currentLevel);
+	/**
+	 * Reloads the current level completely
+	 * @param retry true to play the same level again from its snapshot, rather than building a new one
+	 */
+	private void reset(boolean retry) {
+		loadLevel(retry);
 		fadePhase = -(255 + 100);
+		tickAccumulator = 0;
+		mapView = false;
 		HUD.updateFooterText(input);
 		gameState = ST_RUNNING;
 		//clear out previously rendered data in case the player starts near the edge of the map
 		Arrays.fill(pixels, 0);
+
+		if (benchmark)
+			Benchmark.lineOfSight(level, 100);
+	}
+
+	/**
+	 * Builds the level for a new attempt, seeding the random number generator so that the attempt can be recorded and replayed
+	 * @param retry true to restore the level from the snapshot taken when it was first built, instead of building it again
+	 */
+	private void loadLevel(boolean retry) {
+		finishRecording(); //save the previous attempt, if it was abandoned partway
+
+		if (retry && snapshot != null && replay == null) {
+			if (snapshot.kept())
+				level = snapshot.restore();
+			else //too big to have kept a copy of, so it's built again the same way
+				level = buildLevel(snapshot.seed, snapshot.levelPath, snapshot.levelWidth, snapshot.levelHeight);
+		} else {
+			long seed = System.nanoTime();
+			if (replay != null) {
+				seed = replay.seed;
+				currentLevel = replay.levelPath;
+				freePlayWidth = replay.levelWidth;
+				freePlayHeight = replay.levelHeight;
+			}
+			level = buildLevel(seed, currentLevel, freePlayWidth, freePlayHeight);
+
+			snapshot = new LevelSnapshot(level, seed, currentLevel, freePlayWidth, freePlayHeight);
+			if (!headless) //drawn from the level's mipmap, so it costs next to nothing whatever the level's size
+				thumbnails.put(currentLevel != null? currentLevel : freePlayWidth + "x" + freePlayHeight, level.mipmap.thumbnail(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT)); //$NON-NLS-1$
+			if (saveStatePath != null)
+				saveState();
+		}
+
+		//the attempt gets a random sequence of its own, so it plays out the same whether the level was built or restored
+		randomSeed(snapshot.seed ^ PLAY_SEED);
+
+		tickCount = 0;
+		checksumIndex = 0;
+		checksumMismatches = 0;
+		firstMismatchTick = -1;
+		if (recordPath != null)
+			recording = new InputLog(snapshot.seed, snapshot.levelPath, snapshot.levelWidth, snapshot.levelHeight);
 	}
 
-	/** tick logic for Free Play game mode */
+	//helper function for loadLevel(), builds the level from the given level file, or generates one of the given size
+	private Level buildLevel(long seed, String levelPath, int levelWidth, int levelHeight) {
+		randomSeed(seed);
+
+		if (levelPath != null)
+			return new Level(levelPath);
+		else if ((long)levelWidth*levelHeight > Level.MAX_GENERATED_SIZE)
+			return new Level(new ChunkedWorld(levelWidth, levelHeight, seed), seed);
+		else
+			return new Level(levelWidth, levelHeight, seed);
+	}
+
+	//saves the level that's just been built, which the snapshot may not have kept a copy of
+	private void saveState() {
+		try {
+			LevelSnapshot.save(saveStatePath, level, snapshot.seed, snapshot.levelPath, snapshot.levelWidth, snapshot.levelHeight);
+			System.out.printf("SAVED_STATE: %s\n", saveStatePath); //$NON-NLS-1$
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static LevelSnapshot loadSnapshot() {
+		try {
+			return LevelSnapshot.load(loadStatePath);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/** draw logic for Free Play game mode, runs as many fixed-length simulation ticks as have elapsed, then renders */
 	private void drawRunning() {
+		//catch up on simulation time, without trying to make up for time spent paused or in menus
+		final long now = System.nanoTime();
+		if (lastTickFrame != frameCount - 1)
+			lastFrameTime = now - TICK_NANOS;
+		tickAccumulator += Math.min(now - lastFrameTime, MAX_TICKS_PER_FRAME*TICK_NANOS); //don't spiral if we fall way behind
+		lastFrameTime = now;
+		lastTickFrame = frameCount;
+
+		int ticks = 0;
+		while (tickAccumulator >= TICK_NANOS) {
+			tickAccumulator -= TICK_NANOS;
+			tick();
+			++ticks;
+			if (gameState == ST_WIN || gameState == ST_DIE) {
+				finishRecording();
+				finishReplay();
+			}
+			if (gameState != ST_RUNNING)
+				return;
+		}
+
+		//draw entities part of the way between their last two simulated positions
+		renderer.interpolation = (double)tickAccumulator/TICK_NANOS;
+
+		if (mapView) {
+			//the whole level from its mipmap, which costs the same however big the level is
+			renderer.renderMap(level, pixels);
+			updatePixels();
+			renderer.renderMapEntities(level);
+		} else {
+			//calculate lighting
+			profiler.start(Profiler.LIGHTING);
+			renderer.calculateLighting(level);
+
+			//paint the image with the proper textures
+			profiler.swap(Profiler.LIGHTING, Profiler.TEXTURE);
+			//renderer.applyTexture(pixels);
+			renderer.applyTextureAlt(pixels);
+
+			//update pixels/wrap things up
+			profiler.swap(Profiler.TEXTURE, Profiler.PIXEL_UPDATE);
+			updatePixels();
+
+			//draw all entities
+			profiler.swap(Profiler.PIXEL_UPDATE, Profiler.ENTITY_DRAW);
+			renderer.renderEntities(level);
+			profiler.end(Profiler.ENTITY_DRAW);
+
+			//pick the rendering quality for next frame based on how long this one took
+			if (governor != null)
+				governor.update(profiler, ticks, renderer);
+		}
+
+		//fade in and draw circle closing in on player at beginning of level
+		if (fadePhase < 0) {
+			fill(0, -fadePhase);
+			rect(0, 0, width, height);
+			level.player.renderAlternate(max(0, -fadePhase - 255));
+		}
+
+		profiler.report(this);
+	}
+
+	/** one fixed-length step of game logic for Free Play game mode, independent of rendering */
+	private void tick() {
+		level.player.beginTick();
+		for (Enemy e : level.enemies)
+			e.beginTick();
+
+		//controls come from the keyboard, or from a recording when one is being played back
+		final int controls = replay != null? replay.controls(tickCount) : heldControls();
+		if (recording != null)
+			recording.record(controls);
+		++tickCount;
+
 		//move player
 		profiler.start(Profiler.PLAYER_MOVE);
-		level.player.move(input.isPressed(InputHandler.CTL_UP   ),
-		                  input.isPressed(InputHandler.CTL_DOWN ),
-		                  input.isPressed(InputHandler.CTL_LEFT ),
-		                  input.isPressed(InputHandler.CTL_RIGHT));
+		level.player.move((controls & InputLog.UP   ) != 0,
+		                  (controls & InputLog.DOWN ) != 0,
+		                  (controls & InputLog.LEFT ) != 0,
+		                  (controls & InputLog.RIGHT) != 0);
+		//the field is rebuilt whenever its root moves, so the root trails the player by up to a frame's worth of ticks of movement,
+		//which keeps it to one rebuild a frame even when catching up, and the same from tick to tick however frames fall
+		level.playerField.follow(level.player.x(), level.player.y(), MAX_TICKS_PER_FRAME);
 		//check win condition
 		if (dist(level.player.x(), level.player.y(), level.objective.x(), level.objective.y()) < 5) {
 			gameState = ST_WIN;
 			return;
 		}
 
-		//calculate lighting
-		profiler.swap(Profiler.PLAYER_MOVE, Profiler.LIGHTING);
-		renderer.calculateLighting(pixels, level);
-
-		//enemy pathing (this must be done before we apply textures over the lighting)
-		profiler.swap(Profiler.LIGHTING, Profiler.ENEMY_PATH);
-		for (Enemy e : level.enemies) {
-			e.moveAuto();
+		//enemy pathing
+		profiler.swap(Profiler.PLAYER_MOVE, Profiler.ENEMY_PATH);
+		//enemies only pursue if the player is in white light, and then only the ones with line of sight
+		final boolean exposed = level.inWhiteLight(level.player.x(), level.player.y());
+		final boolean[] spotted = exposed? level.lineOfSight.visibleFrom(level.enemies, level.player.x(), level.player.y()) : null;
+		for (int i = 0; i < level.enemies.size(); ++i) {
+			final Enemy e = level.enemies.get(i);
+			e.moveAuto(exposed && spotted[i]);
 
 			//losing condition
 			if (abs(e.x() - level.player.x()) < Entity.SIZE*2 && abs(e.y() - level.player.y()) < Entity.SIZE*2) {
@@ -196,29 +457,100 @@ public class LD31 extends PApplet {
 				return;
 			}
 		}
+		profiler.end(Profiler.ENEMY_PATH);
 
-		//paint the image with the proper textures
-		profiler.swap(Profiler.ENEMY_PATH, Profiler.TEXTURE);
-		//renderer.applyTexture(pixels);
-		renderer.applyTextureAlt(pixels);
+		//advance the fade in at the beginning of the level
+		if (fadePhase < 0)
+			fadePhase = min(0, fadePhase + 4);
 
-		//update pixels/wrap things up
-		profiler.swap(Profiler.TEXTURE, Profiler.PIXEL_UPDATE);
-		updatePixels();
+		if (tickCount % InputLog.CHECK_INTERVAL == 0)
+			checkTrajectory();
+		if (replay != null && tickCount == replay.length())
+			finishReplay();
+	}
 
-		//draw all entities
-		profiler.swap(Profiler.PIXEL_UPDATE, Profiler.ENTITY_DRAW);
-		renderer.renderEntities(level);
-		profiler.end(Profiler.ENTITY_DRAW);
+	//packs the movement controls currently held down into InputLog flags
+	private int heldControls() {
+		return (input.isPressed(InputHandler.CTL_UP   )? InputLog.UP    : 0) |
+		       (input.isPressed(InputHandler.CTL_DOWN )? InputLog.DOWN  : 0) |
+		       (input.isPressed(InputHandler.CTL_LEFT )? InputLog.LEFT  : 0) |
+		       (input.isPressed(InputHandler.CTL_RIGHT)? InputLog.RIGHT : 0);
+	}
 
-		//fade in and draw circle closing in on player at beginning of level
-		if (fadePhase < 0) {
-			fill(0, -(fadePhase += 4));
-			rect(0, 0, width, height);
-			level.player.renderAlternate(max(0, -fadePhase - 255));
+	//records or verifies where every entity is, so replays can detect when code changes alter gameplay
+	private void checkTrajectory() {
+		final int checksum = level.trajectoryHash();
+		if (recording != null)
+			recording.recordChecksum(checksum);
+		if (replay != null && !replay.verifyChecksum(checksumIndex, checksum)) {
+			if (checksumMismatches++ == 0)
+				firstMismatchTick = tickCount;
 		}
+		++checksumIndex;
+	}
 
-		profiler.report(this);
+	private void finishRecording() {
+		if (recording == null) return;
+		try {
+			recording.save(recordPath);
+			System.out.printf("RECORDED: %d ticks to %s\n", recording.length(), recordPath); //$NON-NLS-1$
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		recording = null;
+	}
+
+	private void finishReplay() {
+		if (replay == null) return;
+		System.out.printf("REPLAYED: %d/%d ticks, %d checksum mismatches", tickCount, replay.length(), checksumMismatches); //$NON-NLS-1$
+		if (checksumMismatches > 0)
+			System.out.printf(" (first at tick %d)", firstMismatchTick); //$NON-NLS-1$
+		System.out.println();
+		replay = null; //hand control back to the keyboard
+	}
+
+	private static InputLog loadReplay() {
+		try {
+			return InputLog.load(replayPath);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Plays back a recorded attempt as fast as possible without opening a window or rendering anything,
+	 * for repeatable simulation benchmarks and for checking that optimizations don't change gameplay.
+	 * @return true if the replay matched the recording
+	 */
+	private static boolean runHeadless() {
+		final LD31 sketch = new LD31();
+		context = sketch;
+		//normally set up when the window opens
+		sketch.sketchPath = System.getProperty("user.dir"); //$NON-NLS-1$
+		sketch.profiler = new Profiler();
+		if (levelCachePath != null)
+			sketch.levelCache = new LevelCache(new File(levelCachePath), LevelCache.DEFAULT_MAX_BYTES);
+		sketch.replay = loadReplay();
+		if (sketch.replay == null)
+			return false;
+
+		final int length = sketch.replay.length();
+		long start = System.nanoTime();
+		sketch.loadLevel(false);
+		final long loadTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		sketch.gameState = ST_RUNNING;
+		while (sketch.replay != null && sketch.gameState == ST_RUNNING)
+			sketch.tick();
+		final long tickTime = System.nanoTime() - start;
+		if (sketch.replay != null) //the game ended before the recording did
+			sketch.finishReplay();
+
+		System.out.printf("HEADLESS_LOAD: %.3f ms\n", loadTime/1000000.0); //$NON-NLS-1$
+		System.out.printf("HEADLESS_TICK: %.3f ms/tick over %d ticks\n", tickTime/1000000.0/Math.max(1, sketch.tickCount), sketch.tickCount); //$NON-NLS-1$
+		return sketch.checksumMismatches == 0 && sketch.tickCount == length;
 	}
 
 	private void drawWin() {
@@ -271,6 +603,51 @@ public class LD31 extends PApplet {
 
 	/** Global Entry Point */
 	public static void main(String[] args) {
+		for (int i = 0; i < args.length; ++i) {
+			switch (args[i]) {
+				case "--benchmark":      benchmark      = true;                          break; //$NON-NLS-1$
+				case "--headless":       headless       = true;                          break; //$NON-NLS-1$
+				case "--record":         recordPath     = valueOf(args, i++);            break; //$NON-NLS-1$
+				case "--replay":         replayPath     = valueOf(args, i++);            break; //$NON-NLS-1$
+				case "--golden":         goldenPath     = valueOf(args, i++);            break; //$NON-NLS-1$
+				case "--frame-budget":   frameBudget    = millisOf(args, i++);           break; //$NON-NLS-1$
+				case "--polygon-lights": polygonLights  = true;                          break; //$NON-NLS-1$
+				case "--level-cache":    levelCachePath = valueOf(args, i++);            break; //$NON-NLS-1$
+				case "--check-edits":    checkEdits     = true;                          break; //$NON-NLS-1$
+				case "--save-state":     saveStatePath  = valueOf(args, i++);            break; //$NON-NLS-1$
+				case "--load-state":     loadStatePath  = valueOf(args, i++);            break; //$NON-NLS-1$
+			}
+		}
+
+		if (headless && replayPath != null) {
+			System.exit(runHeadless()? 0 : 1);
+			return;
+		}
+
 		PApplet.main(new String[] { LD31.class.getName() });
 	}
+
+	//helper function for main(), returns the value given after the flag at args[i], or exits with the usage if there isn't one
+	private static String valueOf(String[] args, int i) {
+		if (i + 1 >= args.length)
+			usage(args[i] + " needs a value"); //$NON-NLS-1$
+		return args[i + 1];
+	}
+
+	//helper function for main(), the same as valueOf() for a number of milliseconds
+	private static double millisOf(String[] args, int i) {
+		final String value = valueOf(args, i);
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			usage(args[i] + " needs a number of milliseconds, found '" + value + "'"); //$NON-NLS-1$ //$NON-NLS-2$
+			return 0;
+		}
+	}
+
+	private static void usage(String problem) {
+		System.err.println(problem);
+		System.err.println(USAGE);
+		System.exit(2);
+	}
 }
@@ -1,14 +1,30 @@
 package net.kopeph.ld31;
 
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import net.kopeph.ld31.entity.Enemy;
+import net.kopeph.ld31.entity.Entity;
 import net.kopeph.ld31.entity.Objective;
 import net.kopeph.ld31.entity.Player;
-import net.kopeph.ld31.graphics.Trace;
-import net.kopeph.ld31.util.RouteNode;
+import net.kopeph.ld31.graphics.LevelMipmap;
+import net.kopeph.ld31.nav.FlowField;
+import net.kopeph.ld31.nav.LineOfSight;
+import net.kopeph.ld31.nav.NavGraph;
+import net.kopeph.ld31.nav.OccupancyPyramid;
+import net.kopeph.ld31.nav.SpawnMask;
+import net.kopeph.ld31.nav.WallSegments;
+import net.kopeph.ld31.spi.TileListener;
+import net.kopeph.ld31.util.ArrayTileStore;
+import net.kopeph.ld31.util.BitGrid;
+import net.kopeph.ld31.util.SpanIndex;
+import net.kopeph.ld31.util.TileStore;
 import net.kopeph.ld31.util.Vector2;
 import processing.core.PApplet;
 import processing.core.PImage;
@@ -29,6 +45,14 @@ public class Level {
 		FLOOR_YELLOW  = 0xFFFFFF00,
 		FLOOR_MAGENTA = 0xFFFF00FF;
 
+	//bump this whenever a change to generateLayout() means a seed no longer gives the same layout, so cached layouts aren't reused
+	public static final int GENERATOR_VERSION = 1;
+	private static final long ENTITY_SEED = 0x5DEECE66DL; //mixed into a level's seed once its layout is done
+	private static final long RANDOM_STEPS = 1 << 24; //PApplet.random(1) returns one of this many evenly spaced values
+	//free play levels bigger than this (in tiles) are played in a window of a ChunkedWorld instead of being generated whole
+	public static final int MAX_GENERATED_SIZE = 2560*1440;
+	public static final int WINDOW_CHUNKS_WIDE = 10, WINDOW_CHUNKS_HIGH = 6; //the size of that window, in chunks
+
 	public final int LEVEL_WIDTH,
 	                 LEVEL_HEIGHT;
 
@@ -37,14 +61,94 @@ public class Level {
 	public Player player;
 	public Objective objective;
 
-	public final int[] tiles;
-
-	public Level(int width, int height) {
+	public final TileStore tiles; //on the heap, or off it for huge levels
+	//one bit per tile, set where the tile is FLOOR_NONE, kept in sync with tiles so hot paths don't have to touch the much larger tile store
+	public final BitGrid walls;
+
+	//derived data, built from tiles once the layout is final, and kept up to date by fillRect() after that
+	private BitGrid walkable; //result of Entity.validPosition() for every tile, so pathfinding doesn't re-check a whole box per step
+	public FlowField playerField; //shared by all enemies pursuing the player
+	public NavGraph navGraph; //for long-range routes, e.g. enemy patrols
+	public LineOfSight lineOfSight; //for enemies spotting the player
+	public OccupancyPyramid occupancy; //for tracing enemy light through open space quickly
+	public WallSegments wallSegments; //for lighting with visibility polygons
+	public SpanIndex spans; //for copying tiles a run at a time, null if the level is too noisy for it to be worth it
+	public LevelMipmap mipmap; //for drawing the whole level small, e.g. thumbnails and the map view
+	private SpawnMask spawnMask; //for placing entities at random, null until one is placed and after an edit changes the walkable tiles
+
+	private final List<TileListener> tileListeners = new ArrayList<>(); //things outside the level built from its tiles, see fillRect()
+
+	/**
+	 * Generates a random level for free play
+	 * @param seed determines everything about the level, the same seed and size always give the same level
+	 */
+	public Level(int width, int height, long seed) {
 		PApplet context = LD31.getContext();
 
 		LEVEL_WIDTH = width;
 		LEVEL_HEIGHT = height;
 
+		//the layout is the slow part, so it's loaded from the cache when it's been generated before
+		final LevelCache cache = LD31.getContext().levelCache();
+		final TileStore cached = cache == null? null : cache.get(seed, width, height);
+		if (cached != null) {
+			tiles = cached;
+			walls = wallsOf(tiles);
+		} else {
+			final int[] layout = new int[LEVEL_WIDTH * LEVEL_HEIGHT];
+			walls = new BitGrid(LEVEL_WIDTH, LEVEL_HEIGHT);
+			context.randomSeed(seed);
+			generateLayout(layout);
+			tiles = new ArrayTileStore(LEVEL_WIDTH, LEVEL_HEIGHT, layout);
+			if (cache != null)
+				cache.put(seed, width, height, tiles);
+		}
+
+		buildIndexes();
+		populate(seed);
+	}
+
+	/**
+	 * Builds a level from a window of whole chunks of a world too big to play all at once, placed in the world by the seed.
+	 * The chunks in the window are copied into the level's tiles as usual, so everything else (collision, line of sight,
+	 * lighting) works the same as in any other level, across chunk boundaries too, and only those chunks are generated.
+	 */
+	public Level(ChunkedWorld world, long seed) {
+		final int chunksWide = PApplet.min(WINDOW_CHUNKS_WIDE, world.chunksWide), chunksHigh = PApplet.min(WINDOW_CHUNKS_HIGH, world.chunksHigh);
+		LEVEL_WIDTH = chunksWide*ChunkedWorld.CHUNK_SIZE;
+		LEVEL_HEIGHT = chunksHigh*ChunkedWorld.CHUNK_SIZE;
+
+		//the window is picked with a generator of its own, like GoldenFrames' cameras, so it doesn't disturb anything else
+		final Random window = new Random(seed);
+		final int originX = window.nextInt(world.chunksWide - chunksWide + 1)*ChunkedWorld.CHUNK_SIZE;
+		final int originY = window.nextInt(world.chunksHigh - chunksHigh + 1)*ChunkedWorld.CHUNK_SIZE;
+
+		final int[] layout = new int[LEVEL_WIDTH * LEVEL_HEIGHT];
+		world.copyRegion(originX, originY, LEVEL_WIDTH, LEVEL_HEIGHT, layout);
+		tiles = new ArrayTileStore(LEVEL_WIDTH, LEVEL_HEIGHT, layout);
+		walls = wallsOf(tiles);
+
+		buildIndexes();
+		populate(seed);
+	}
+
+	//helper function for constructors, adds enemies, the player and the objective to a generated level
+	private void populate(long seed) {
+		//entities get a random sequence of their own, so they come out the same whether the layout was generated or not
+		LD31.getContext().randomSeed(seed ^ ENTITY_SEED);
+
+		//add enemies
+		final int ENEMY_COUNT = (LEVEL_WIDTH + LEVEL_HEIGHT)/2 / 250 + LEVEL_WIDTH*LEVEL_HEIGHT / 72000;
+		for (int i = 0; i < ENEMY_COUNT; ++i)
+			enemies.add(new Enemy(this));
+
+		placeEntities();
+	}
+
+	//helper function for constructor, fills in the given tiles and walls with a randomly generated layout
+	private void generateLayout(int[] tiles) {
+		PApplet context = LD31.getContext();
+
 		//a few adjustments to make the level properties scale somewhat with the game size
 		//these are more or less just arbitrary magic numbers that are "close enough" to the desired result
 		final int AVERAGE_DIMENSION = (LEVEL_WIDTH + LEVEL_HEIGHT)/2,
@@ -60,13 +164,11 @@ public class Level {
 		          MIN_HALLWAY_SIZE = 3,
 		          MAX_HALLWAY_SIZE = 7,
 
-		          VORONOI_POINTS = 1 + AVERAGE_DIMENSION / 100 + LEVEL_WIDTH*LEVEL_HEIGHT / 128000,
-		          ENEMY_COUNT = AVERAGE_DIMENSION / 250 + LEVEL_WIDTH*LEVEL_HEIGHT / 72000;
-
-		tiles = new int[LEVEL_WIDTH * LEVEL_HEIGHT];
+		          VORONOI_POINTS = 1 + AVERAGE_DIMENSION / 100 + LEVEL_WIDTH*LEVEL_HEIGHT / 128000;
 
 		do {
 			Arrays.fill(tiles, FLOOR_NONE);
+			walls.fill(true);
 
 			//clear out the rooms
 			for (int r = 0; r < ROOM_COUNT; ++r) {
@@ -75,7 +177,7 @@ public class Level {
 				int rx = (int)context.random(LEVEL_WIDTH - rw - 1);
 				int ry = (int)context.random(LEVEL_HEIGHT - rh - 1);
 
-				clearRect(rx, ry, rw, rh, FLOOR_BLACK);
+				clearRect(tiles, rx, ry, rw, rh, FLOOR_BLACK);
 			}
 
 			//clear out some hallways
@@ -94,20 +196,21 @@ public class Level {
 				         !validRect(rx2 - HALLWAY_SIZE, ry2 - HALLWAY_SIZE, HALLWAY_SIZE*2 + 1, HALLWAY_SIZE*2 + 1));
 
 				//clear out the tiles
-				clearRect(PApplet.min(rx1, rx2) - HALLWAY_SIZE, ry1 - HALLWAY_SIZE, PApplet.abs(rx2 - rx1) + HALLWAY_SIZE*2 + 1, HALLWAY_SIZE*2 + 1, FLOOR_BLACK);
-				clearRect(rx2 - HALLWAY_SIZE, PApplet.min(ry1, ry2) - HALLWAY_SIZE, HALLWAY_SIZE*2 + 1, PApplet.abs(ry2 - ry1) + HALLWAY_SIZE*2 + 1, FLOOR_BLACK);
+				clearRect(tiles, PApplet.min(rx1, rx2) - HALLWAY_SIZE, ry1 - HALLWAY_SIZE, PApplet.abs(rx2 - rx1) + HALLWAY_SIZE*2 + 1, HALLWAY_SIZE*2 + 1, FLOOR_BLACK);
+				clearRect(tiles, rx2 - HALLWAY_SIZE, PApplet.min(ry1, ry2) - HALLWAY_SIZE, HALLWAY_SIZE*2 + 1, PApplet.abs(ry2 - ry1) + HALLWAY_SIZE*2 + 1, FLOOR_BLACK);
 			}
 
 			//remove one-pixel-wide level artifacts
 			for (int i = tiles.length - LEVEL_WIDTH - 1; i --> LEVEL_WIDTH;) {
 				if (tiles[i] == FLOOR_NONE) {
-					if (tiles[i + 1] != FLOOR_NONE && tiles[i - 1] != FLOOR_NONE)
-						tiles[i] = FLOOR_BLACK;
-					else if (tiles[i + LEVEL_WIDTH] != FLOOR_NONE && tiles[i - LEVEL_WIDTH] != FLOOR_NONE)
+					if ((tiles[i + 1] != FLOOR_NONE && tiles[i - 1] != FLOOR_NONE) ||
+					    (tiles[i + LEVEL_WIDTH] != FLOOR_NONE && tiles[i - LEVEL_WIDTH] != FLOOR_NONE)) {
 						tiles[i] = FLOOR_BLACK;
+						walls.set(i%LEVEL_WIDTH, i/LEVEL_WIDTH, false);
+					}
 				}
 			}
-		} while (!validateLevel()); //keep generating new layouts until we get one that's continuous
+		} while (!validateLevel(tiles)); //keep generating new layouts until we get one that's continuous
 
 		//create points for a voronoi diagram which will determine level coloring
 		int[] posx = new int[VORONOI_POINTS];
@@ -143,189 +246,435 @@ public class Level {
 				tiles[i] = color;
 			}
 		}
-
-		//add enemies
-		for (int i = 0; i < ENEMY_COUNT; ++i)
-			enemies.add(new Enemy(this));
-
-		placeEntities();
 	}
 
-	//filePath should be a plain text file containing level information
+	//filePath should be a plain text file containing level information, or a binary level file (see LevelFile)
 	//see level file spec for more information
 	public Level(String filePath) {
 		PApplet context = LD31.getContext();
 
-		String[] lines = context.loadStrings(filePath);
-		PImage img = context.loadImage(lines[0]);
-		LEVEL_WIDTH = img.width;
-		LEVEL_HEIGHT = img.height;
-		tiles = img.pixels;
+		if (filePath.endsWith(LevelFile.EXTENSION)) {
+			final LevelFile file;
+			try {
+				file = LevelFile.load(filePath);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+
+			LEVEL_WIDTH = file.width;
+			LEVEL_HEIGHT = file.height;
+			tiles = file.tiles;
+			walls = wallsOf(tiles);
+
+			buildIndexes();
+
+			for (LevelFile.EntityRecord entity : file.entities) {
+				final boolean randomColor = entity.color == 0 || entity.color == FLOOR_NONE;
+				addEntity(entity, entity.kind == LevelFile.ENEMY && randomColor? Enemy.randomColor() : entity.color);
+			}
+		} else {
+			//the whole file is parsed before the image is loaded, so that mistakes in it are reported straight away
+			final LevelParser parser = new LevelParser(filePath);
+			final List<LevelFile.EntityRecord> lines = new ArrayList<>();
+			final String imagePath;
+			try (BufferedReader in = context.createReader(filePath)) {
+				if (in == null)
+					throw new FileNotFoundException(filePath);
+				imagePath = parser.parse(in, lines::add);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			for (String error : parser.errors())
+				System.err.println(error);
+
+			PImage img = context.loadImage(imagePath);
+			LEVEL_WIDTH = img.width;
+			LEVEL_HEIGHT = img.height;
+			tiles = TileStore.of(LEVEL_WIDTH, LEVEL_HEIGHT, img.pixels); //huge levels are copied off the heap, leaving the image to be collected
+			walls = wallsOf(tiles);
+
+			buildIndexes();
 
-		for (String line : lines)
-			parseLine(line);
+			for (LevelFile.EntityRecord line : lines)
+				addLine(line);
+		}
 
 		placeEntities();
 	}
 
-	//helper function for constructor
-	private void parseLine(String line) {
-		if (line.isEmpty()) return;
-		String[] parts = line.split("\t");
-
-		//retrieve all possible properties before determining the specifier
-		//because it's simple and avoids code repetition
-		int x = -1, y = -1, color = Enemy.randomColor(); //placeholder values
-		List<RouteNode> route = null; //placeholder value
-		for (int i = 1; i < parts.length; ++i) {
-			String[] pair = parts[i].split(":");
-
-			if (pair.length == 2) { //guard against OutOfBoundsException
-				switch (pair[0].trim().toLowerCase()) {
-					case "x":
-						x = Integer.parseInt(pair[1].trim());
-						break;
-					case "y":
-						y = Integer.parseInt(pair[1].trim());
-						break;
-					case "color":
-						color = Enemy.getColorByString(pair[1].trim());
-						//TODO: support for hex colors, maybe
-						if (color == Level.FLOOR_NONE) //if the string given is invalid
-							color = Enemy.randomColor();
-						break;
-					case "route":
-					case "path":
-						route = parseRoute(pair[1].trim());
-						break;
-				}
-			}
+	/** Builds a level from the given tiles with no entities in it yet, for LevelSnapshot.load() to put them in */
+	Level(TileStore tiles) {
+		LEVEL_WIDTH = tiles.width();
+		LEVEL_HEIGHT = tiles.height();
+		this.tiles = tiles;
+		walls = wallsOf(tiles);
+
+		buildIndexes();
+	}
+
+	/**
+	 * @return a level of its own with the same tiles, derived data and entities, each copied in bulk rather than built again
+	 * (see LevelSnapshot). Entities are copied as they were placed (position, color, light and route), not partway through
+	 * moving, so this is only meant for a level that hasn't been played yet.
+	 */
+	Level copy() {
+		return new Level(this);
+	}
+
+	private Level(Level original) {
+		LEVEL_WIDTH = original.LEVEL_WIDTH;
+		LEVEL_HEIGHT = original.LEVEL_HEIGHT;
+		tiles = original.tiles.copy();
+		walls = original.walls.copy();
+
+		walkable = original.walkable.copy();
+		playerField = new FlowField(this, original.playerField.radius); //nothing but a cache, filled in the first time it's asked
+		navGraph = new NavGraph(this, original.navGraph);
+		lineOfSight = new LineOfSight(walls, original.lineOfSight);
+		occupancy = new OccupancyPyramid(walls, original.occupancy);
+		wallSegments = new WallSegments(original.wallSegments);
+		spans = original.spans == null? null : original.spans.copy();
+		mipmap = original.mipmap.copy();
+
+		player = new Player(this, original.player.pos());
+		objective = new Objective(this, original.objective.pos());
+		for (Enemy e : original.enemies) {
+			final Enemy enemy = new Enemy(this, e.pos(), e.color(), e.route());
+			enemy.coneAngle = e.coneAngle;
+			enemy.viewDistance = e.viewDistance;
+			enemies.add(enemy);
+		}
+	}
+
+	//helper function for constructors, one bit per tile, set where the tile is FLOOR_NONE
+	private static BitGrid wallsOf(TileStore tiles) {
+		final int width = tiles.width(), height = tiles.height();
+		final BitGrid walls = new BitGrid(width, height);
+		final int[] row = new int[width];
+		for (int y = 0; y < height; ++y) {
+			tiles.copyRow(y, 0, row, 0, width);
+			for (int x = 0; x < width; ++x)
+				if (row[x] == FLOOR_NONE)
+					walls.set(x, y, true);
 		}
+		return walls;
+	}
+
+	//helper function for constructor, one line of a text level file that isn't empty (null if it isn't an entity)
+	private void addLine(LevelFile.EntityRecord entity) {
+		//the placeholder color is drawn for every line, so that levels keep using the same random numbers they always have
+		int color = Enemy.randomColor();
+		if (entity == null) return;
+
+		if (entity.color == FLOOR_NONE) //if the string given is invalid
+			color = Enemy.randomColor();
+		else if (entity.color != 0)
+			color = entity.color;
 
-		//determine how to use information based on the specifier
-		switch (parts[0].trim().toLowerCase()) {
-			case "player":
-				player = new Player(this, x, y);
+		addEntity(entity, color);
+	}
+
+	//helper function for constructors, places an entity given by a level file
+	private void addEntity(LevelFile.EntityRecord entity, int color) {
+		switch (entity.kind) {
+			case LevelFile.PLAYER:
+				player = new Player(this, entity.x, entity.y);
 				break;
-			case "objective":
-				objective = new Objective(this, x, y);
+			case LevelFile.OBJECTIVE:
+				objective = new Objective(this, entity.x, entity.y);
 				break;
-			case "enemy":
+			case LevelFile.ENEMY:
 				//if incomplete coordinates are given, place enemy in a random location
 				//this behavior is subject to change
-				if (validTile(x, y))
-					enemies.add(new Enemy(this, x, y, color, route));
+				Enemy enemy;
+				if (validTile(entity.x, entity.y))
+					enemy = new Enemy(this, entity.x, entity.y, color, entity.route);
 				else
-					enemies.add(new Enemy(this, color, route));
+					enemy = new Enemy(this, color, entity.route);
+				enemy.coneAngle = entity.cone;
+				enemy.viewDistance = entity.view;
+				enemies.add(enemy);
 				break;
 		}
 	}
 
-	//helper function for parseLine()
-	private List<RouteNode> parseRoute(String in) {
-		String[] coords = in.toLowerCase().split(",");
-		List<RouteNode> route = new ArrayList<>(coords.length/3);
-		try {
-			int i = 0;
-			while (i < coords.length) {
-				double x = Double.valueOf(coords[i++].trim());
-				if (i >= coords.length) break; //guard against OutOfBoundsException
-				double y = Double.valueOf(coords[i++].trim());
-
-				//optionally parse a wait time, if one is given within (parenthesis) or [brackets]
-				int waitTime = 0;
-				if (i < coords.length && (coords[i].trim().startsWith("(") || coords[i].trim().startsWith("[")))
-					waitTime = Integer.parseInt(coords[i].trim().substring(1, coords[i++].length() - 1).trim());
-
-				//add the new additions to the route
-				route.add(new RouteNode(new Vector2(x, y), waitTime));
-			}
-		} catch (NumberFormatException e) {
-			e.printStackTrace();
-			return null;
-		}
-		if (route.size() == 0)
-			return null;
-		return route;
-	}
-
 	//helper function for constructors
 	private void placeEntities() {
-		//allow the player + objective placement to give up after so many attempts
-		//this is so we don't lock up on edge cases where one of the placements can't possibly succeed
-		int placementFailCount = 0;
-
+		//the player and objective are picked from just the walkable tiles that meet their constraints, so each takes one draw,
+		//and if no tile does (e.g. the enemies' light covers the whole level) any walkable tile will do, rather than locking up
 		if (player == null) { //if we haven't already placed a player
-			do {
-				player = new Player(this);
-				++placementFailCount;
-			} while (!goodPlayerPlacement() && placementFailCount < 100);
+			SpawnMask unseen = spawnMask();
+			for (Enemy e : enemies)
+				unseen = unseen.farFrom(e.x(), e.y(), (long)e.viewDistance*e.viewDistance);
+			player = new Player(this, pick(unseen.size() > 0? unseen : spawnMask()));
 		}
 
 		if (objective == null) { //if we haven't already placed an objective
-			placementFailCount = 0;
-			do {
-				objective = new Objective(this);
-				++placementFailCount;
-			} while (!goodObjectivePlacement() && placementFailCount < 100);
+			final SpawnMask far = spawnMask().farFrom(player.x(), player.y(), 200*200 + 1); //the magic numbers are real
+			objective = new Objective(this, pick(far.size() > 0? far : spawnMask()));
 		}
 	}
 
-	//checks to make sure the level is continuous by doing a flood fill and then checking for any pixels not reached
-	private boolean validateLevel() {
-		for (int i = 0; i < tiles.length; ++i) {
-			if (tiles[i] == FLOOR_BLACK) {
-				//find the first pixel of floor and flood fill from there
-				Trace.fill(i%LEVEL_WIDTH, i/LEVEL_WIDTH, (x, y) -> {
-					if (!inBounds(x, y) || tiles[y*LEVEL_WIDTH + x] != FLOOR_BLACK)
-						return false;
-					tiles[y*LEVEL_WIDTH + x] = FLOOR_WHITE;
-					return true;
-				});
-				break;
+	/** @return a random tile an entity can stand on, every walkable tile being equally likely */
+	public Vector2 randomSpawn() {
+		return pick(spawnMask());
+	}
+
+	//the level's walkable tiles as a SpawnMask, built the first time an entity is placed at random
+	private SpawnMask spawnMask() {
+		if (spawnMask == null)
+			spawnMask = new SpawnMask(walkable);
+		return spawnMask;
+	}
+
+	//picks a tile from the mask with the level's random sequence, like everything else that's placed at random
+	private static Vector2 pick(SpawnMask mask) {
+		if (mask.size() == 0)
+			throw new IllegalStateException("Nowhere in the level is big enough to place an entity"); //$NON-NLS-1$
+		final PApplet context = LD31.getContext();
+		if (mask.size() <= RANDOM_STEPS)
+			return mask.pick(context.random(1));
+		//one draw only comes in RANDOM_STEPS steps, which would leave most tiles of a bigger mask out, so a second draw
+		//picks within each step (only for masks this big, so that smaller levels place entities the same as ever)
+		return mask.pick(context.random(1) + (double)context.random(1)/RANDOM_STEPS);
+	}
+
+	//helper function for constructors, must be called after the tiles are final
+	private void buildIndexes() {
+		walkable = erodeFloor();
+		playerField = new FlowField(this);
+		navGraph = new NavGraph(this);
+		lineOfSight = new LineOfSight(this);
+		occupancy = new OccupancyPyramid(this);
+		wallSegments = new WallSegments(this);
+		spans = SpanIndex.of(tiles, maxSpans());
+		mipmap = new LevelMipmap(tiles);
+	}
+
+	//the most runs worth keeping a SpanIndex for
+	private int maxSpans() {
+		return LEVEL_WIDTH*LEVEL_HEIGHT/8;
+	}
+
+	/** Registers something built from the level's tiles (e.g. the renderer's base layer) to be told about edits to them, if it isn't already */
+	public void addTileListener(TileListener listener) {
+		if (!tileListeners.contains(listener))
+			tileListeners.add(listener);
+	}
+
+	/** Changes the color of one tile, see fillRect() */
+	public void setTile(int x, int y, int color) {
+		fillRect(x, y, 1, 1, color);
+	}
+
+	/**
+	 * Changes a rectangle of tiles (clipped to the level) to one color, e.g. to open or close a door, and brings the
+	 * walls and everything else built from the tiles up to date. Each index only redoes the area around the tiles that
+	 * actually changed, so a small edit costs microseconds instead of a rebuild of the whole level. If only floor
+	 * colors changed, nothing built from the walls is touched at all.
+	 */
+	public void fillRect(int x0, int y0, int w, int h, int color) {
+		final int xa = PApplet.max(x0, 0), xb = PApplet.min(x0 + w, LEVEL_WIDTH) - 1;
+		final int ya = PApplet.max(y0, 0), yb = PApplet.min(y0 + h, LEVEL_HEIGHT) - 1;
+		if (xa > xb || ya > yb) return;
+
+		//the dirty regions: around the tiles that changed color, and around the ones that changed between wall and floor
+		int x1 = LEVEL_WIDTH, y1 = LEVEL_HEIGHT, x2 = -1, y2 = -1;
+		int wx1 = LEVEL_WIDTH, wy1 = LEVEL_HEIGHT, wx2 = -1, wy2 = -1;
+		final boolean wall = color == FLOOR_NONE;
+		final int[] row = new int[xb - xa + 1];
+		for (int y = ya; y <= yb; ++y) {
+			tiles.copyRow(y, xa, row, 0, row.length);
+			int first = -1, last = -1;
+			for (int i = 0; i < row.length; ++i) {
+				if (row[i] == color) continue;
+				if (first < 0) first = i;
+				last = i;
+				if ((row[i] == FLOOR_NONE) != wall) {
+					wx1 = PApplet.min(wx1, xa + i);
+					wx2 = PApplet.max(wx2, xa + i);
+					wy1 = PApplet.min(wy1, y);
+					wy2 = y;
+				}
 			}
+			if (first < 0) continue;
+
+			tiles.fillRow(y, xa + first, last - first + 1, color);
+			x1 = PApplet.min(x1, xa + first);
+			x2 = PApplet.max(x2, xa + last);
+			y1 = PApplet.min(y1, y);
+			y2 = y;
 		}
+		if (x2 < 0) return; //nothing changed
 
-		//iterate backwards looking for unfilled tiles because it's slightly faster
-		for (int i = tiles.length - 1; i --> 0;)
-			if (tiles[i] == FLOOR_BLACK)
-				return false;
+		if (spans != null) {
+			spans.update(tiles, x1, y1, x2, y2);
+			if (spans.size() > maxSpans())
+				spans = null;
+		}
+		mipmap.update(tiles, x1, y1, x2, y2);
+
+		if (wx2 >= 0) {
+			for (int y = wy1; y <= wy2; ++y)
+				walls.fillRow(y, wx1, wx2, wall); //every tile in the edited rectangle is the new color now, so this is exact
+			final int[] outlines = wallsChanged(wx1, wy1, wx2, wy2);
+
+			//lights are shaped by whole wall outlines, which can reach well past the walls that changed, so listeners hear about all of them
+			x1 = PApplet.min(x1, outlines[0]);
+			y1 = PApplet.min(y1, outlines[1]);
+			x2 = PApplet.max(x2, PApplet.min(outlines[2], LEVEL_WIDTH  - 1));
+			y2 = PApplet.max(y2, PApplet.min(outlines[3], LEVEL_HEIGHT - 1));
+		}
 
-		return true;
+		for (TileListener listener : tileListeners)
+			listener.tilesChanged(this, x1, y1, x2, y2);
 	}
 
-	//helper function for constructor/room + hallway generation
-	private void clearRect(int x0, int y0, int w, int h, int color) {
-		for (int y = y0 + h; y --> y0;)
-			Arrays.fill(tiles, y*LEVEL_WIDTH + x0, y*LEVEL_WIDTH + x0 + w, color);
+	//helper function for fillRect(), brings everything built from the walls up to date after the ones from (x1, y1) to (x2, y2) changed
+	//and returns the corners of the wall outlines that changed with them
+	private int[] wallsChanged(int x1, int y1, int x2, int y2) {
+		lineOfSight.wallsChanged(x1, y1, x2, y2);
+		occupancy.wallsChanged(x1, y1, x2, y2);
+		final int[] outlines = new int[4];
+		wallSegments.wallsChanged(walls, x1, y1, x2, y2, outlines);
+
+		//an entity needs its whole box clear to stand somewhere, so where it can stand changes for Entity.SIZE around the walls that did
+		final int S = Entity.SIZE;
+		int ax1 = LEVEL_WIDTH, ay1 = LEVEL_HEIGHT, ax2 = -1, ay2 = -1;
+		boolean opened = false;
+		for (int y = PApplet.max(y1 - S, 0); y <= PApplet.min(y2 + S, LEVEL_HEIGHT - 1); ++y) {
+			for (int x = PApplet.max(x1 - S, 0); x <= PApplet.min(x2 + S, LEVEL_WIDTH - 1); ++x) {
+				//the same test as erodeFloor(), a row of the box (a word of walls) at a time
+				boolean clear = x - S > 0 && y - S > 0 && x + S < LEVEL_WIDTH && y + S < LEVEL_HEIGHT;
+				for (int by = y - S; clear && by <= y + S; ++by)
+					clear = !walls.anyInRow(by, x - S, x + S);
+				if (walkable.get(x, y) == clear) continue;
+
+				walkable.set(x, y, clear);
+				opened |= clear;
+				ax1 = PApplet.min(ax1, x);
+				ax2 = PApplet.max(ax2, x);
+				ay1 = PApplet.min(ay1, y);
+				ay2 = y;
+			}
+		}
+
+		//walls that nothing could stand next to anyway (e.g. in a gap too narrow to walk through) don't change any routes
+		if (ax2 >= 0) {
+			navGraph.walkableChanged(ax1, ay1, ax2, ay2);
+			playerField.walkableChanged(ax1, ay1, ax2, ay2);
+			spawnMask = null;
+
+			//a way opening up can make a shorter route between any two places, a way closing only breaks the routes through it
+			for (Enemy e : enemies) {
+				if (opened) e.walkableChanged(0, 0, LEVEL_WIDTH - 1, LEVEL_HEIGHT - 1);
+				else        e.walkableChanged(ax1, ay1, ax2, ay2);
+			}
+		}
+		return outlines;
 	}
 
-	//helper function for constructor/player placement
-	private boolean goodPlayerPlacement() {
-		for (Enemy e : enemies)
-			if (PApplet.dist(e.x(), e.y(), player.x(), player.y()) < e.viewDistance)
+	//erodes the floor by Entity.SIZE in two separable passes (rows, then columns) so it costs O(tiles) instead of O(tiles * SIZE^2)
+	//(also used by EditCheck, to check the walkable tiles fillRect() leaves against ones worked out from scratch)
+	BitGrid erodeFloor() {
+		final int S = Entity.SIZE, D = S*2 + 1;
+
+		//horizontal pass: a tile passes if the whole row segment [x - S, x + S] is valid
+		boolean[] rows = new boolean[LEVEL_WIDTH*LEVEL_HEIGHT];
+		for (int y = 0; y < LEVEL_HEIGHT; ++y) {
+			int run = 0;
+			for (int x = 0; x < LEVEL_WIDTH; ++x) {
+				run = validTile(x, y)? run + 1 : 0;
+				if (run >= D)
+					rows[y*LEVEL_WIDTH + x - S] = true;
+			}
+		}
+
+		//vertical pass: a tile passes if the whole column segment [y - S, y + S] passed the horizontal pass
+		final BitGrid walkable = new BitGrid(LEVEL_WIDTH, LEVEL_HEIGHT);
+		int[] runs = new int[LEVEL_WIDTH];
+		for (int y = 0; y < LEVEL_HEIGHT; ++y) {
+			for (int x = 0; x < LEVEL_WIDTH; ++x) {
+				runs[x] = rows[y*LEVEL_WIDTH + x]? runs[x] + 1 : 0;
+				if (runs[x] >= D)
+					walkable.set(x, y - S, true);
+			}
+		}
+		return walkable;
+	}
+
+	//checks to make sure the level is continuous, by labeling the connected areas of floor a run of tiles at a time
+	private boolean validateLevel(int[] tiles) {
+		final SpanIndex spans = SpanIndex.of(tiles, LEVEL_WIDTH, LEVEL_HEIGHT);
+
+		//row and column 0 don't count as inside the level (see inBounds()), so floor there can never be reached
+		for (int i = spans.first(0); i < spans.first(1); ++i)
+			if (spans.color(i) != FLOOR_NONE)
 				return false;
+		for (int y = 1; y < LEVEL_HEIGHT; ++y)
+			if (spans.color(spans.first(y)) != FLOOR_NONE)
+				return false;
+
+		if (spans.label(FLOOR_NONE, new int[spans.size()]) > 1)
+			return false;
+
+		//the flood fill this replaced left the floor white, and the coloring after this leaves the last tile as it is
+		spans.fill(tiles, FLOOR_BLACK, FLOOR_WHITE);
 		return true;
 	}
 
-	//helper function for constructor/objective placement
-	private boolean goodObjectivePlacement() {
-		return (PApplet.dist(player.x(), player.y(), objective.x(), objective.y()) > 200); //the magic numbers are real
+	//helper function for constructor/room + hallway generation
+	private void clearRect(int[] tiles, int x0, int y0, int w, int h, int color) {
+		for (int y = y0 + h; y --> y0;) {
+			Arrays.fill(tiles, y*LEVEL_WIDTH + x0, y*LEVEL_WIDTH + x0 + w, color);
+			walls.fillRow(y, x0, x0 + w - 1, color == FLOOR_NONE);
+		}
 	}
 
 	//returns true if and only all tiles within the given rectangle are floor tiles
 	private boolean validRect(int x0, int y0, int w, int h) {
 		for (int y = y0 + h; y --> y0;)
-			for (int x = x0 + w; x --> x0;)
-				if (tiles[y*LEVEL_WIDTH + x] == FLOOR_NONE)
-					return false;
+			if (walls.anyInRow(y, x0, x0 + w - 1))
+				return false;
 
 		return true;
 	}
 
+	//returns true if the given point is lit white, i.e. its floor color combined with the light of every enemy that reaches it
+	//(this is answered from the level itself rather than the rendered frame, so game logic doesn't have to wait on lighting)
+	public boolean inWhiteLight(int x, int y) {
+		int color = tiles.get(x, y);
+		for (Enemy e : enemies) {
+			final int dx = x - e.x(), dy = y - e.y();
+			if (dx*dx + dy*dy < e.viewDistance*e.viewDistance && e.inCone(x, y) && lineOfSight.clear(e.x(), e.y(), x, y))
+				color |= e.color();
+			if (color == FLOOR_WHITE)
+				return true;
+		}
+		return color == FLOOR_WHITE;
+	}
+
+	//hash of every entity's position, used to check that a replayed attempt plays out the same as when it was recorded
+	public int trajectoryHash() {
+		int hash = 31*player.x() + player.y();
+		for (Enemy e : enemies)
+			hash = 31*(31*hash + e.x()) + e.y();
+		return hash;
+	}
+
 	//returns true if an only if the coordinates are inside the level and not inside a wall
 	public boolean validTile(int x, int y) {
-		return (inBounds(x, y) && tiles[y*LEVEL_WIDTH + x] != FLOOR_NONE);
+		return (inBounds(x, y) && !walls.get(x, y));
+	}
+
+	//returns true if the coordinates are outside the level or inside a wall (unlike validTile(), row and column 0 count as inside)
+	public boolean wall(int x, int y) {
+		return (x < 0 || y < 0 || x >= LEVEL_WIDTH || y >= LEVEL_HEIGHT || walls.get(x, y));
+	}
+
+	//returns true if and only if an entity can stand centered on the given coordinates (equivalent to Entity.validPosition())
+	public boolean walkable(int x, int y) {
+		return (x >= 0 && x < LEVEL_WIDTH && y >= 0 && y < LEVEL_HEIGHT && walkable.get(x, y));
 	}
 
 	private boolean inBounds(int x, int y) {
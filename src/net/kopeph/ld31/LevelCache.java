@@ -0,0 +1,192 @@
+package net.kopeph.ld31;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+import net.kopeph.ld31.util.TileStore;
+
+/**
+ * A directory of generated level layouts, so that a free play level generated once for a given seed and size
+ * (e.g. a replay, or a benchmark fixture) is loaded from disk after that instead of being generated again.
+ *
+ * Each entry holds a level's tiles in the binary level format (see LevelFile), deflated, behind a header giving
+ * its key (Level.GENERATOR_VERSION, seed, width and height) and the length and CRC32 of the uncompressed data.
+ * An entry that doesn't match its key or checksum is deleted and treated as missing, so a damaged cache can only
+ * cost time, never produce a different level. Once the entries take up more than the byte budget, the ones used
+ * least recently are deleted; file modification times record when each one was last used, between runs.
+ */
+public class LevelCache {
+	public static final String EXTENSION = ".blc"; //$NON-NLS-1$
+	public static final long DEFAULT_MAX_BYTES = 64L*1024*1024;
+
+	private static final int MAGIC = 0x42524C43; //"BRLC"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 4 + 1 + 4 + 8 + 4 + 4 + 4 + 8; //magic, version, then everything below
+
+	private final File directory;
+	private final long maxBytes;
+
+	//entry file name -> size in bytes, least recently used first
+	private final Map<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long totalBytes;
+
+	public LevelCache(File directory, long maxBytes) {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+
+		directory.mkdirs();
+		final File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+		if (files != null) {
+			//pick up where the last run left off, oldest first
+			Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+			for (File file : files) {
+				entries.put(file.getName(), file.length());
+				totalBytes += file.length();
+			}
+		}
+	}
+
+	/** @return the tiles of the level generated from the given seed at the given size, or null if they aren't cached */
+	public synchronized TileStore get(long seed, int width, int height) {
+		final String name = nameOf(seed, width, height);
+		if (entries.get(name) == null) return null; //which also marks it as the most recently used
+		final File file = new File(directory, name);
+
+		try {
+			final ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+			if (in.remaining() < HEADER_SIZE || in.getInt() != MAGIC || in.get() != VERSION)
+				throw new IOException("Not a level cache entry"); //$NON-NLS-1$
+			if (in.getInt() != Level.GENERATOR_VERSION || in.getLong() != seed || in.getInt() != width || in.getInt() != height)
+				throw new IOException("Level cache entry doesn't match its name"); //$NON-NLS-1$
+
+			final int length = in.getInt();
+			final long checksum = in.getLong();
+			if (length < 0 || length > maxLength(width, height))
+				throw new IOException("Bad level cache entry length " + length); //$NON-NLS-1$
+
+			final byte[] data = new byte[length];
+			final Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(in.array(), in.position(), in.remaining());
+				if (inflater.inflate(data) != length || !inflater.finished())
+					throw new IOException("Level cache entry has the wrong length"); //$NON-NLS-1$
+			} catch (DataFormatException e) {
+				throw new IOException("Corrupt level cache entry", e); //$NON-NLS-1$
+			} finally {
+				inflater.end();
+			}
+
+			final CRC32 crc = new CRC32();
+			crc.update(data, 0, length);
+			if (crc.getValue() != checksum)
+				throw new IOException("Level cache entry checksum mismatch"); //$NON-NLS-1$
+
+			final LevelFile level = LevelFile.read(ByteBuffer.wrap(data), file.getPath());
+			if (level.width != width || level.height != height)
+				throw new IOException("Level cache entry has the wrong size"); //$NON-NLS-1$
+
+			file.setLastModified(System.currentTimeMillis()); //so it's still known to be recently used next time
+			return level.tiles;
+		} catch (IOException e) {
+			System.err.println("Discarding level cache entry " + file.getPath() + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+			remove(name);
+			return null;
+		}
+	}
+
+	/** Stores the tiles of the level generated from the given seed at the given size, evicting old entries if need be */
+	public synchronized void put(long seed, int width, int height, TileStore tiles) {
+		final String name = nameOf(seed, width, height);
+		final File file = new File(directory, name);
+		final File temp = new File(directory, name + ".tmp"); //$NON-NLS-1$
+
+		try {
+			final ByteArrayOutputStream raw = new ByteArrayOutputStream();
+			try (DataOutputStream out = new DataOutputStream(raw)) {
+				new LevelFile(width, height, tiles, Collections.<LevelFile.EntityRecord>emptyList()).write(out);
+			}
+			final byte[] data = raw.toByteArray();
+			final CRC32 crc = new CRC32();
+			crc.update(data, 0, data.length);
+
+			//written in full under another name first, so a crash partway through can't leave a truncated entry behind
+			try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+				out.writeInt(MAGIC);
+				out.writeByte(VERSION);
+				out.writeInt(Level.GENERATOR_VERSION);
+				out.writeLong(seed);
+				out.writeInt(width);
+				out.writeInt(height);
+				out.writeInt(data.length);
+				out.writeLong(crc.getValue());
+
+				//a stream doesn't end a Deflater it was handed, so its native memory is freed here rather than whenever it's collected
+				final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+				try {
+					final DeflaterOutputStream compressed = new DeflaterOutputStream(out, deflater);
+					compressed.write(data);
+					compressed.finish();
+				} finally {
+					deflater.end();
+				}
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			e.printStackTrace();
+			temp.delete();
+			return;
+		}
+
+		final Long previous = entries.put(name, file.length());
+		totalBytes += file.length() - (previous == null? 0 : previous);
+		evict(name);
+	}
+
+	//deletes the least recently used entries until everything fits in the budget, apart from the one just added
+	private void evict(String keep) {
+		final List<String> victims = new ArrayList<>();
+		long bytes = totalBytes;
+		for (Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator(); it.hasNext() && bytes > maxBytes;) {
+			final Map.Entry<String, Long> entry = it.next();
+			if (entry.getKey().equals(keep)) continue;
+			victims.add(entry.getKey());
+			bytes -= entry.getValue();
+		}
+		for (String name : victims)
+			remove(name);
+	}
+
+	private void remove(String name) {
+		final Long size = entries.remove(name);
+		if (size != null)
+			totalBytes -= size;
+		new File(directory, name).delete();
+	}
+
+	private static String nameOf(long seed, int width, int height) {
+		return String.format("level-%d-%016x-%dx%d%s", Level.GENERATOR_VERSION, seed, width, height, EXTENSION); //$NON-NLS-1$
+	}
+
+	//an upper bound on the size of a level file holding just tiles, so a damaged header can't make us allocate gigabytes
+	private static long maxLength(int width, int height) {
+		return 64 + 14L*width*height; //header, then at worst a palette color and a run of two 5 byte varints per tile
+	}
+}
@@ -0,0 +1,260 @@
+package net.kopeph.ld31;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.kopeph.ld31.entity.Enemy;
+import net.kopeph.ld31.graphics.LevelMipmap;
+import net.kopeph.ld31.util.ArrayTileStore;
+import net.kopeph.ld31.util.RouteNode;
+import net.kopeph.ld31.util.TileStore;
+import net.kopeph.ld31.util.Vector2;
+
+/**
+ * A level's tiles and entities, as stored in the binary level format (files ending in EXTENSION).
+ *
+ * Tiles are stored as indices into a palette of the colors the level uses, run-length encoded a row at a time,
+ * and entities as the same values a text level file gives them. Binary levels are read straight out of a memory
+ * map of the file into the level's tile array, without going through an image decoder, so even a large map loads
+ * in a few milliseconds. Text levels can be converted with net.kopeph.convert.LevelConverter.
+ *
+ * Entities mean exactly what the lines of a text level file that LevelParser makes them into do.
+ */
+public final class LevelFile {
+	public static final String EXTENSION = ".blv"; //$NON-NLS-1$
+
+	private static final int MAGIC = 0x42524C56; //"BRLV"
+	private static final int VERSION = 1;
+
+	//kinds of entity
+	public static final int
+		PLAYER    = 0,
+		OBJECTIVE = 1,
+		ENEMY     = 2;
+
+	/** One entity, as given by a level file, before it's placed in a level */
+	public static class EntityRecord {
+		public final int kind;
+		public int x = -1, y = -1; //-1 if not given, in which case the entity is placed randomly
+		public int color; //0 if not given, or Level.FLOOR_NONE if given but not a known color (enemies only)
+		public float cone = Enemy.FULL_CIRCLE; //in radians (enemies only)
+		public int view = Enemy.DEFAULT_VIEW_DISTANCE; //in pixels (enemies only)
+		public List<RouteNode> route; //null if not given (enemies only)
+
+		public EntityRecord(int kind) {
+			this.kind = kind;
+		}
+	}
+
+	public final int width, height;
+	public final TileStore tiles; //null if read by loadWithoutTiles()
+	public final LevelMipmap mipmap; //only built by loadWithoutTiles(), from the tiles as they're read, null otherwise
+	public final List<EntityRecord> entities;
+
+	public LevelFile(int width, int height, TileStore tiles, List<EntityRecord> entities) {
+		this(width, height, tiles, null, entities);
+	}
+
+	private LevelFile(int width, int height, TileStore tiles, LevelMipmap mipmap, List<EntityRecord> entities) {
+		this.width = width;
+		this.height = height;
+		this.tiles = tiles;
+		this.mipmap = mipmap;
+		this.entities = entities;
+	}
+
+	public static LevelFile load(String path) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), path);
+		}
+	}
+
+	/**
+	 * @return the level in the given file with its size, entities and mipmap but no tiles (null), which are checked and
+	 *         passed up the mipmap a pair of rows at a time but not kept
+	 */
+	static LevelFile loadWithoutTiles(String path) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), path, false);
+		}
+	}
+
+	/**
+	 * Reads a level in the binary format from a buffer, e.g. a memory map of a level file or a decompressed LevelCache entry
+	 * @param source where the buffer came from, for error messages
+	 */
+	static LevelFile read(ByteBuffer in, String source) throws IOException {
+		return read(in, source, true);
+	}
+
+	private static LevelFile read(ByteBuffer in, String source, boolean keepTiles) throws IOException {
+		try {
+			if (in.getInt() != MAGIC)
+				throw new IOException("Not a level file: " + source); //$NON-NLS-1$
+			final int version = in.get();
+			if (version != VERSION)
+				throw new IOException("Unsupported level file version " + version + ": " + source); //$NON-NLS-1$ //$NON-NLS-2$
+
+			final int width = in.getInt(), height = in.getInt();
+			if (width <= 0 || height <= 0 || (long)width*height > Integer.MAX_VALUE)
+				throw new IOException("Bad level size " + width + "x" + height + ": " + source); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+			//check counts against what's left before allocating for them, so a corrupt header can't ask for gigabytes
+			final int colors = readVarInt(in, source);
+			if (colors > in.remaining()/4)
+				throw new IOException("Corrupt palette in level file: " + source); //$NON-NLS-1$
+			final int[] palette = new int[colors];
+			for (int i = 0; i < palette.length; ++i)
+				palette[i] = in.getInt();
+
+			//tiles as (run length, palette index) pairs, a row at a time
+			final TileStore tiles;
+			final LevelMipmap mipmap;
+			if (keepTiles) {
+				tiles = TileStore.allocate(width, height); //off the heap if it's huge
+				mipmap = null;
+				for (int y = 0; y < height; ++y)
+					readRow(in, source, palette, tiles, y);
+			} else {
+				tiles = null;
+				mipmap = new LevelMipmap(width, height, (y, row) -> {
+					try {
+						readRow(in, source, palette, new ArrayTileStore(width, 1, row), 0);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+			}
+
+			final int count = readVarInt(in, source);
+			if (count > in.remaining())
+				throw new IOException("Corrupt entity count in level file: " + source); //$NON-NLS-1$
+			final List<EntityRecord> entities = new ArrayList<>(count);
+			for (int i = 0; i < count; ++i) {
+				final int kind = in.get();
+				if (kind != PLAYER && kind != OBJECTIVE && kind != ENEMY)
+					throw new IOException("Unknown entity kind " + kind + " in level file: " + source); //$NON-NLS-1$ //$NON-NLS-2$
+
+				final EntityRecord entity = new EntityRecord(kind);
+				entity.x = in.getInt();
+				entity.y = in.getInt();
+				if (kind == ENEMY) {
+					entity.color = in.getInt();
+					entity.cone = in.getFloat();
+					entity.view = in.getInt();
+					final int nodes = readVarInt(in, source);
+					if (nodes > in.remaining()/20) //two doubles and an int per node
+						throw new IOException("Corrupt patrol route in level file: " + source); //$NON-NLS-1$
+					if (nodes > 0) {
+						entity.route = new ArrayList<>(nodes);
+						for (int n = 0; n < nodes; ++n)
+							entity.route.add(new RouteNode(new Vector2(in.getDouble(), in.getDouble()), in.getInt()));
+					}
+				}
+				entities.add(entity);
+			}
+
+			return new LevelFile(width, height, tiles, mipmap, entities);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated level file: " + source, e); //$NON-NLS-1$
+		} catch (UncheckedIOException e) {
+			throw e.getCause(); //from reading tile runs for the mipmap
+		}
+	}
+
+	//helper function for read(), reads one row's tile runs into row y of tiles
+	private static void readRow(ByteBuffer in, String source, int[] palette, TileStore tiles, int y) throws IOException {
+		for (int x = 0; x < tiles.width();) {
+			final int run = readVarInt(in, source), index = readVarInt(in, source);
+			if (run <= 0 || x + run > tiles.width() || index >= palette.length)
+				throw new IOException("Corrupt tile run in level file: " + source); //$NON-NLS-1$
+			tiles.fillRow(y, x, run, palette[index]);
+			x += run;
+		}
+	}
+
+	public void save(String path) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+			write(out);
+		}
+	}
+
+	/** Writes the level in the binary format, the same as save() does but to any stream */
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeInt(width);
+		out.writeInt(height);
+
+		//the palette, in order of first appearance
+		final Map<Integer, Integer> palette = new LinkedHashMap<>();
+		final int[] row = new int[width];
+		for (int y = 0; y < height; ++y) {
+			tiles.copyRow(y, 0, row, 0, width);
+			for (int x = 0; x < width; ++x)
+				if (!palette.containsKey(row[x]))
+					palette.put(row[x], palette.size());
+		}
+		InputLog.writeVarInt(out, palette.size());
+		for (int color : palette.keySet())
+			out.writeInt(color);
+
+		for (int y = 0; y < height; ++y) {
+			tiles.copyRow(y, 0, row, 0, width);
+			for (int x = 0; x < width;) {
+				int run = 1;
+				while (x + run < width && row[x + run] == row[x])
+					++run;
+				InputLog.writeVarInt(out, run);
+				InputLog.writeVarInt(out, palette.get(row[x]));
+				x += run;
+			}
+		}
+
+		InputLog.writeVarInt(out, entities.size());
+		for (EntityRecord entity : entities) {
+			out.writeByte(entity.kind);
+			out.writeInt(entity.x);
+			out.writeInt(entity.y);
+			if (entity.kind == ENEMY) {
+				out.writeInt(entity.color);
+				out.writeFloat(entity.cone);
+				out.writeInt(entity.view);
+				InputLog.writeVarInt(out, entity.route == null? 0 : entity.route.size());
+				if (entity.route != null) {
+					for (RouteNode node : entity.route) {
+						out.writeDouble(node.pos.x);
+						out.writeDouble(node.pos.y);
+						out.writeInt(node.waitTime);
+					}
+				}
+			}
+		}
+	}
+
+	//7 bits per byte, low bits first, high bit set on every byte but the last (see InputLog)
+	private static int readVarInt(ByteBuffer in, String source) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			final int b = in.get() & 0xFF;
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				if (value < 0) break; //nothing in a level file is anywhere near that big
+				return value;
+			}
+		}
+		throw new IOException("Malformed variable length integer in level file: " + source); //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,127 @@
+package net.kopeph.ld31;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.kopeph.ld31.graphics.LevelMipmap;
+import net.kopeph.ld31.util.ThreadPool;
+import net.kopeph.ld31.util.TileStore;
+import processing.core.PImage;
+
+/**
+ * What the campaign menu shows about a level before it's played (its size, how many enemies it has and its mipmap, for a
+ * thumbnail), found without building the level.
+ *
+ * A text level's lines go through LevelParser, and its size is read from the header of its image rather than by decoding
+ * it (for PNGs, which all levels so far are); the image is only decoded for the mipmap if it's no bigger than
+ * TileStore.OFF_HEAP_THRESHOLD. A binary level's size and entities are read straight from the file, and its tiles go up
+ * the mipmap as they're read without being kept. readAll() reads a whole campaign's worth at once, a level per thread,
+ * so it's quick enough to do at startup.
+ */
+public final class LevelInfo {
+	private static final long PNG_SIGNATURE = 0x89504E470D0A1A0AL;
+	private static final int PNG_IHDR = 0x49484452; //"IHDR"
+
+	public final String path;
+	public final int width, height; //0 if the level couldn't be read
+	public final int enemies;
+	public final LevelMipmap mipmap; //null if the level couldn't be read, or is a text level too big to decode at startup
+	public final List<String> errors; //everything wrong with the level file, empty if nothing is
+
+	private LevelInfo(String path, int width, int height, int enemies, LevelMipmap mipmap, List<String> errors) {
+		this.path = path;
+		this.width = width;
+		this.height = height;
+		this.enemies = enemies;
+		this.mipmap = mipmap;
+		this.errors = Collections.unmodifiableList(errors);
+	}
+
+	/** @return the name of the level's file, without its directory or extension */
+	public String name() {
+		final String name = path.substring(Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1);
+		return name.lastIndexOf('.') > 0? name.substring(0, name.lastIndexOf('.')) : name;
+	}
+
+	/** @return the info of the level at the given path, which is a text level file unless it ends in LevelFile.EXTENSION */
+	public static LevelInfo read(String path) {
+		final List<String> errors = new ArrayList<>();
+		try {
+			if (path.endsWith(LevelFile.EXTENSION)) {
+				final LevelFile file = LevelFile.loadWithoutTiles(path);
+				int enemies = 0;
+				for (LevelFile.EntityRecord entity : file.entities)
+					if (entity.kind == LevelFile.ENEMY)
+						++enemies;
+				return new LevelInfo(path, file.width, file.height, enemies, file.mipmap, errors);
+			}
+
+			final LevelParser parser = new LevelParser(path);
+			final int[] enemies = new int[1];
+			final String imagePath;
+			try (BufferedReader in = LD31.getContext().createReader(path)) {
+				if (in == null)
+					throw new FileNotFoundException(path);
+				imagePath = parser.parse(in, (entity) -> { if (entity != null && entity.kind == LevelFile.ENEMY) ++enemies[0]; });
+			}
+			errors.addAll(parser.errors());
+			if (imagePath == null)
+				throw new IOException("No level image named in: " + path); //$NON-NLS-1$
+
+			final int[] size = imageSize(imagePath);
+			final LevelMipmap mipmap = (long)size[0]*size[1] <= TileStore.OFF_HEAP_THRESHOLD? imageMipmap(imagePath) : null;
+			return new LevelInfo(path, size[0], size[1], enemies[0], mipmap, errors);
+		} catch (IOException | RuntimeException e) { //nothing can get out of a ThreadPool task
+			errors.add(e.toString());
+			return new LevelInfo(path, 0, 0, 0, null, errors);
+		}
+	}
+
+	//helper function for read(), decodes the image to build its mipmap
+	private static LevelMipmap imageMipmap(String imagePath) throws IOException {
+		final PImage img = LD31.getContext().loadImage(imagePath);
+		if (img == null)
+			throw new IOException("Couldn't read level image: " + imagePath); //$NON-NLS-1$
+		return new LevelMipmap(TileStore.of(img.width, img.height, img.pixels));
+	}
+
+	//helper function for read(), returns { width, height } of the image, from its header if it's a PNG
+	private static int[] imageSize(String imagePath) throws IOException {
+		try (InputStream stream = LD31.getContext().createInput(imagePath)) {
+			if (stream == null)
+				throw new FileNotFoundException(imagePath);
+
+			//the signature, then the IHDR chunk's length and type, then the width and height
+			final DataInputStream in = new DataInputStream(stream);
+			if (in.readLong() == PNG_SIGNATURE && in.readInt() >= 8 && in.readInt() == PNG_IHDR)
+				return new int[] { in.readInt(), in.readInt() };
+		}
+
+		//anything else has to be decoded to find out
+		final PImage img = LD31.getContext().loadImage(imagePath);
+		if (img == null)
+			throw new IOException("Couldn't read level image: " + imagePath); //$NON-NLS-1$
+		return new int[] { img.width, img.height };
+	}
+
+	/** @return the info of each of the given levels, in the same order, read in parallel */
+	public static LevelInfo[] readAll(String... paths) {
+		final LevelInfo[] infos = new LevelInfo[paths.length];
+		try (ThreadPool pool = new ThreadPool(Math.max(1, Math.min(paths.length, Runtime.getRuntime().availableProcessors())))) {
+			for (int i = 0; i < paths.length; ++i) {
+				final int index = i;
+				pool.post(() -> infos[index] = read(paths[index]));
+			}
+			pool.forceSync();
+		} catch (Exception e) {
+			e.printStackTrace(); //only from shutting the pool down, after every level has been read
+		}
+		return infos;
+	}
+}
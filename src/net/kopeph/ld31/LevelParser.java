@@ -0,0 +1,236 @@
+package net.kopeph.ld31;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.kopeph.ld31.LevelFile.EntityRecord;
+import net.kopeph.ld31.entity.Enemy;
+import net.kopeph.ld31.spi.LevelLineHandler;
+import net.kopeph.ld31.util.RouteNode;
+import net.kopeph.ld31.util.Vector2;
+
+/**
+ * Parses text level files in a single pass over the text, a character at a time.
+ *
+ * The first line names the level's image, and every line after it that isn't empty is an entity: its kind (player,
+ * objective or enemy) followed by tab-separated key:value fields, as described in README.md. Each line is handed on as
+ * soon as its end is read, so nothing waits on the image being loaded, or even on the rest of the file.
+ *
+ * Mistakes don't stop the parse. Each one is recorded in errors() with the line and column it's at (from 1), and the
+ * field it's in is left out: a field that isn't key:value, an unknown kind or key, a malformed number or route. An
+ * unknown color is kept as Level.FLOOR_NONE, so that the enemy is given a random color, as it always has been.
+ */
+public final class LevelParser {
+	private final String source;
+	private final List<String> errors = new ArrayList<>();
+
+	private int line = 1, column; //where the character just read is, from 1
+
+	//the field being read, the column it starts at, and where its first ':' is (-1 if it hasn't got one)
+	private final StringBuilder field = new StringBuilder();
+	private int fieldColumn, colon = -1, colons;
+
+	/** @param source where the text comes from, for error messages */
+	public LevelParser(String source) {
+		this.source = source;
+	}
+
+	/**
+	 * Parses a text level file, handing the handler each line that isn't empty (see LevelLineHandler) as soon as it ends.
+	 * The first line is never an entity, but it's handed on too, as null, so a level sees the same lines it always has.
+	 * @return the path of the level's image, from the first line, or null if the file is empty
+	 */
+	public String parse(Reader in, LevelLineHandler handler) throws IOException {
+		String imagePath = null;
+		EntityRecord entity = null; //the entity on this line, null if its kind isn't known (yet)
+		int fields = 0; //fields read so far on this line
+		boolean blank = true, cr = false;
+
+		for (int c = in.read(); ; c = in.read()) {
+			if (c == '\n' && cr) { //the second half of a \r\n line break
+				cr = false;
+				continue;
+			}
+			cr = c == '\r';
+			++column;
+
+			final boolean lineEnd = c == -1 || c == '\n' || c == '\r';
+			if (lineEnd || c == '\t' && line > 1) { //the first line is all one field, since it's a path
+				if (line == 1)
+					imagePath = field.toString().trim();
+				else if (fields++ == 0)
+					entity = parseKind();
+				else if (entity != null)
+					parseField(entity);
+
+				field.setLength(0);
+				colon = -1;
+				colons = 0;
+			} else {
+				if (field.length() == 0)
+					fieldColumn = column;
+				if (c == ':' && colons++ == 0)
+					colon = field.length();
+				field.append((char)c);
+			}
+
+			if (!lineEnd) {
+				blank = false;
+				continue;
+			}
+			if (!blank)
+				handler.line(entity);
+			if (c == -1)
+				return imagePath == null || imagePath.isEmpty()? null : imagePath;
+
+			++line;
+			column = 0;
+			entity = null;
+			fields = 0;
+			blank = true;
+		}
+	}
+
+	/** @return everything wrong with what's been parsed so far, as "source:line:column: message" */
+	public List<String> errors() {
+		return Collections.unmodifiableList(errors);
+	}
+
+	private void error(int at, String message) {
+		errors.add(source + ":" + line + ":" + at + ": " + message); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	//returns the index of the first character of text at or after from that isn't whitespace
+	private static int skipSpace(String text, int from) {
+		while (from < text.length() && Character.isWhitespace(text.charAt(from)))
+			++from;
+		return from;
+	}
+
+	//helper function for parse(), the first field of an entity line
+	private EntityRecord parseKind() {
+		final String kind = field.toString().trim().toLowerCase();
+		switch (kind) {
+			case "player":    return new EntityRecord(LevelFile.PLAYER);    //$NON-NLS-1$
+			case "objective": return new EntityRecord(LevelFile.OBJECTIVE); //$NON-NLS-1$
+			case "enemy":     return new EntityRecord(LevelFile.ENEMY);     //$NON-NLS-1$
+			case "":          return null; //$NON-NLS-1$
+		}
+		error(fieldColumn + skipSpace(field.toString(), 0), "unknown kind of entity '" + kind + "', the line is skipped"); //$NON-NLS-1$ //$NON-NLS-2$
+		return null;
+	}
+
+	//helper function for parse(), a key:value field of an entity line
+	private void parseField(EntityRecord entity) {
+		final String text = field.toString();
+		if (text.trim().isEmpty()) return; //e.g. two tabs in a row
+
+		if (colons != 1) {
+			error(fieldColumn + skipSpace(text, 0), (colons == 0? "expected key:value, found '" : "more than one ':' in '") + text.trim() + "'"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			return;
+		}
+
+		final String key = text.substring(0, colon).trim().toLowerCase(), value = text.substring(colon + 1).trim();
+		final int at = fieldColumn + skipSpace(text, colon + 1);
+		switch (key) {
+			case "x": //$NON-NLS-1$
+				entity.x = parseInt(value, at, entity.x);
+				break;
+			case "y": //$NON-NLS-1$
+				entity.y = parseInt(value, at, entity.y);
+				break;
+			case "color": //$NON-NLS-1$
+				entity.color = Enemy.getColorByString(value);
+				//TODO: support for hex colors, maybe
+				if (entity.color == Level.FLOOR_NONE)
+					error(at, "unknown color '" + value + "', a random one is used instead"); //$NON-NLS-1$ //$NON-NLS-2$
+				break;
+			case "route": //$NON-NLS-1$
+			case "path": //$NON-NLS-1$
+				entity.route = parseRoute(value, at);
+				break;
+			case "view": //how far the enemy's light reaches, in pixels //$NON-NLS-1$
+				entity.view = Math.max(1, parseInt(value, at, entity.view));
+				break;
+			case "cone": //width of the enemy's cone of light, in degrees //$NON-NLS-1$
+				try {
+					final float degrees = Float.parseFloat(value);
+					if (!Float.isFinite(degrees))
+						throw new NumberFormatException(value); //"NaN" and "Infinity" parse, but aren't a number of degrees
+					entity.cone = (float)Math.max(0, Math.min(Math.toRadians(degrees), Enemy.FULL_CIRCLE));
+				} catch (NumberFormatException e) {
+					error(at, "expected a number of degrees, found '" + value + "'"); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+				break;
+			default:
+				error(fieldColumn + skipSpace(text, 0), "unknown key '" + key + "', the field is skipped"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	//returns the whole number in value, or the fallback if it isn't one
+	private int parseInt(String value, int at, int fallback) {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			error(at, "expected a whole number, found '" + value + "'"); //$NON-NLS-1$ //$NON-NLS-2$
+			return fallback;
+		}
+	}
+
+	/**
+	 * Helper function for parseField(), a route is comma separated points x, y, each optionally followed by a wait time
+	 * within (parentheses) or [brackets]. A route with a malformed number is left out altogether, as it always has been.
+	 * @param at the column the route starts at
+	 */
+	private List<RouteNode> parseRoute(String value, int at) {
+		//the route's tokens, trimmed, with the column each one starts at
+		final List<String> tokens = new ArrayList<>();
+		final List<Integer> columns = new ArrayList<>();
+		for (int from = 0; from <= value.length();) {
+			int to = value.indexOf(',', from);
+			if (to < 0) to = value.length();
+			tokens.add(value.substring(from, to).trim());
+			columns.add(at + Math.min(skipSpace(value, from), to));
+			from = to + 1;
+		}
+		if (tokens.get(tokens.size() - 1).isEmpty()) //a comma at the end is fine
+			tokens.remove(tokens.size() - 1);
+
+		//each token only counts as read once it's parsed, so if one isn't a number, i is the one
+		final List<RouteNode> route = new ArrayList<>();
+		int i = 0;
+		try {
+			while (i < tokens.size()) {
+				final double x = Double.parseDouble(tokens.get(i));
+				if (++i == tokens.size()) {
+					error(columns.get(i - 1), "route ends partway through a point, which is left out"); //$NON-NLS-1$
+					break;
+				}
+				final double y = Double.parseDouble(tokens.get(i));
+				++i;
+
+				int waitTime = 0;
+				if (i < tokens.size() && (tokens.get(i).startsWith("(") || tokens.get(i).startsWith("["))) { //$NON-NLS-1$ //$NON-NLS-2$
+					final String wait = tokens.get(i);
+					final String close = wait.startsWith("(")? ")" : "]"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+					if (wait.length() < 2 || !wait.endsWith(close)) {
+						error(columns.get(i), "expected a wait time ending in '" + close + "', found '" + wait + "', the route is skipped"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+						return null;
+					}
+					waitTime = Integer.parseInt(wait.substring(1, wait.length() - 1).trim());
+					++i;
+				}
+
+				route.add(new RouteNode(new Vector2(x, y), waitTime));
+			}
+		} catch (NumberFormatException e) {
+			error(columns.get(i), "expected a number, found '" + tokens.get(i) + "', the route is skipped"); //$NON-NLS-1$ //$NON-NLS-2$
+			return null;
+		}
+
+		return route.isEmpty()? null : route;
+	}
+}
@@ -0,0 +1,228 @@
+package net.kopeph.ld31;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import net.kopeph.ld31.entity.Enemy;
+import net.kopeph.ld31.entity.Objective;
+import net.kopeph.ld31.entity.Player;
+import net.kopeph.ld31.util.RouteNode;
+import net.kopeph.ld31.util.TileStore;
+import net.kopeph.ld31.util.Vector2;
+
+/**
+ * A level as it was when it was first built, before anything moved, so that it can be played again without being
+ * generated or parsed again: restore() hands out a copy of its tiles, derived indexes and entities, each made in a
+ * bulk copy, which takes a few milliseconds where building the level took anything up to seconds.
+ *
+ * The level it keeps is never played itself, only copied, so it stays the same however many times it's restored.
+ * It also remembers what it was built from (the seed, plus the level file or free play size, like InputLog does),
+ * so an attempt at a restored level can still be recorded and replayed. A level with more tiles than
+ * TileStore.OFF_HEAP_THRESHOLD isn't copied at all, since the copy would take as much memory again as the level
+ * itself; kept() is false for its snapshot, which is left to be built again from the seed instead.
+ *
+ * Levels can be saved as a save-state (files ending in EXTENSION): a header of their own giving the same seed, level
+ * file and free play size as an InputLog's does, then the entities with their exact positions and the tiles in the
+ * binary level format, deflated together. Derived indexes aren't saved, since they're built again from the tiles
+ * much faster than they'd be read back in.
+ */
+public final class LevelSnapshot {
+	public static final String EXTENSION = ".brs"; //$NON-NLS-1$
+
+	private static final int MAGIC = 0x42525353; //"BRSS"
+	private static final int VERSION = 1;
+
+	public final long seed;
+	public final String levelPath; //null for free play levels
+	public final int levelWidth, levelHeight; //only meaningful for free play levels
+
+	private final Level level; //null if the level was too big to copy
+
+	/** Takes a snapshot of a level that has just been built, built from the given seed and level file or free play size */
+	public LevelSnapshot(Level level, long seed, String levelPath, int levelWidth, int levelHeight) {
+		this(seed, levelPath, levelWidth, levelHeight, (long)level.LEVEL_WIDTH*level.LEVEL_HEIGHT > TileStore.OFF_HEAP_THRESHOLD? null : level.copy());
+	}
+
+	//the level is kept as it is, so it mustn't be used by anything else
+	private LevelSnapshot(long seed, String levelPath, int levelWidth, int levelHeight, Level level) {
+		this.level = level;
+		this.seed = seed;
+		this.levelPath = levelPath;
+		this.levelWidth = levelWidth;
+		this.levelHeight = levelHeight;
+	}
+
+	/** @return whether the snapshot kept a copy of its level to restore(), rather than leaving it to be built again */
+	public boolean kept() {
+		return level != null;
+	}
+
+	/** @return a level of its own, exactly as the snapshot's level was when the snapshot was taken (only if kept()) */
+	public Level restore() {
+		return level.copy();
+	}
+
+	/**
+	 * Saves a level that has just been built, from the given seed and level file or free play size, as a save-state
+	 * (rather than saving a snapshot's copy of it, which it might be too big to have)
+	 */
+	public static void save(String path, Level level, long seed, String levelPath, int levelWidth, int levelHeight) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeLong(seed);
+			out.writeBoolean(levelPath != null);
+			if (levelPath != null) {
+				out.writeUTF(levelPath);
+			} else {
+				out.writeInt(levelWidth);
+				out.writeInt(levelHeight);
+			}
+
+			//closing a DeflaterOutputStream leaves a Deflater it was given alone, so that one is ended here
+			final Deflater compressor = new Deflater(Deflater.BEST_COMPRESSION);
+			try {
+				final DeflaterOutputStream deflater = new DeflaterOutputStream(out, compressor);
+				final DataOutputStream body = new DataOutputStream(deflater);
+
+				body.writeInt(level.enemies.size() + 2);
+				writeEntity(body, LevelFile.PLAYER, level.player.pos(), null);
+				writeEntity(body, LevelFile.OBJECTIVE, level.objective.pos(), null);
+				for (Enemy e : level.enemies)
+					writeEntity(body, LevelFile.ENEMY, e.pos(), e);
+
+				final ByteArrayOutputStream tiles = new ByteArrayOutputStream();
+				try (DataOutputStream tileOut = new DataOutputStream(tiles)) {
+					new LevelFile(level.LEVEL_WIDTH, level.LEVEL_HEIGHT, level.tiles, Collections.<LevelFile.EntityRecord>emptyList()).write(tileOut);
+				}
+				body.writeInt(tiles.size());
+				tiles.writeTo(body);
+
+				body.flush();
+				deflater.finish();
+			} finally {
+				compressor.end();
+			}
+		}
+	}
+
+	//helper function for save(), the enemy is null for the player and objective
+	private static void writeEntity(DataOutputStream out, int kind, Vector2 pos, Enemy enemy) throws IOException {
+		out.writeByte(kind);
+		out.writeDouble(pos.x);
+		out.writeDouble(pos.y);
+		if (enemy == null) return;
+
+		out.writeInt(enemy.color());
+		out.writeFloat(enemy.coneAngle);
+		out.writeInt(enemy.viewDistance);
+		final List<RouteNode> route = enemy.route();
+		out.writeInt(route == null? 0 : route.size());
+		if (route != null) {
+			for (RouteNode node : route) {
+				out.writeDouble(node.pos.x);
+				out.writeDouble(node.pos.y);
+				out.writeInt(node.waitTime);
+			}
+		}
+	}
+
+	public static LevelSnapshot load(String path) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+			if (in.readInt() != MAGIC)
+				throw new IOException("Not a save-state: " + path); //$NON-NLS-1$
+			final int version = in.readByte();
+			if (version != VERSION)
+				throw new IOException("Unsupported save-state version " + version + ": " + path); //$NON-NLS-1$ //$NON-NLS-2$
+
+			final long seed = in.readLong();
+			String levelPath = null;
+			int levelWidth = 0, levelHeight = 0;
+			if (in.readBoolean()) {
+				levelPath = in.readUTF();
+			} else {
+				levelWidth = in.readInt();
+				levelHeight = in.readInt();
+			}
+
+			//the inflating stream is closed (and its Inflater ended) along with the file, not left for the garbage collector
+			try (InflaterInputStream inflated = new InflaterInputStream(in)) {
+				final DataInputStream body = new DataInputStream(inflated);
+
+				//the entities come first in the file, but can't be placed until the level's been built from its tiles
+				final int count = body.readInt();
+				if (count < 2)
+					throw new IOException("Save-state has no player or objective: " + path); //$NON-NLS-1$
+				final List<SavedEntity> entities = new ArrayList<>();
+				for (int i = 0; i < count; ++i)
+					entities.add(readEntity(body, i, path));
+
+				final int length = body.readInt();
+				if (length < 0)
+					throw new IOException("Bad level length in save-state: " + path); //$NON-NLS-1$
+				final byte[] tiles = new byte[length];
+				body.readFully(tiles);
+				final LevelFile file = LevelFile.read(ByteBuffer.wrap(tiles), path);
+
+				final Level level = new Level(file.tiles);
+				level.player = new Player(level, entities.get(0).pos);
+				level.objective = new Objective(level, entities.get(1).pos);
+				for (SavedEntity saved : entities.subList(2, count)) {
+					final Enemy enemy = new Enemy(level, saved.pos, saved.color, saved.route);
+					enemy.coneAngle = saved.cone;
+					enemy.viewDistance = saved.view;
+					level.enemies.add(enemy);
+				}
+
+				return new LevelSnapshot(seed, levelPath, levelWidth, levelHeight, level);
+			}
+		}
+	}
+
+	//one entity read back by load(), before it's placed in the level
+	private static class SavedEntity {
+		Vector2 pos;
+		int color;
+		float cone;
+		int view;
+		List<RouteNode> route;
+	}
+
+	//helper function for load(), the player comes first, then the objective, then the enemies
+	private static SavedEntity readEntity(DataInputStream in, int index, String path) throws IOException {
+		final int kind = in.readByte();
+		final int expected = index == 0? LevelFile.PLAYER : index == 1? LevelFile.OBJECTIVE : LevelFile.ENEMY;
+		if (kind != expected)
+			throw new IOException("Unexpected entity kind " + kind + " in save-state: " + path); //$NON-NLS-1$ //$NON-NLS-2$
+
+		final SavedEntity entity = new SavedEntity();
+		entity.pos = new Vector2(in.readDouble(), in.readDouble());
+		if (kind != LevelFile.ENEMY) return entity;
+
+		entity.color = in.readInt();
+		entity.cone = in.readFloat();
+		entity.view = in.readInt();
+		final int nodes = in.readInt();
+		if (nodes < 0)
+			throw new IOException("Bad route length in save-state: " + path); //$NON-NLS-1$
+		if (nodes > 0) {
+			entity.route = new ArrayList<>();
+			for (int n = 0; n < nodes; ++n)
+				entity.route.add(new RouteNode(new Vector2(in.readDouble(), in.readDouble()), in.readInt()));
+		}
+		return entity;
+	}
+}
@@ -1,11 +1,18 @@
 package net.kopeph.ld31.entity;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import net.kopeph.ld31.LD31;
 import net.kopeph.ld31.Level;
+import net.kopeph.ld31.graphics.LightGrid;
 import net.kopeph.ld31.graphics.Trace;
+import net.kopeph.ld31.graphics.VisibilityPolygon;
+import net.kopeph.ld31.nav.NavGraph;
 import net.kopeph.ld31.spi.PointPredicate;
+import net.kopeph.ld31.spi.RegionPredicate;
+import net.kopeph.ld31.spi.SpanPredicate;
 import net.kopeph.ld31.util.RouteNode;
 import net.kopeph.ld31.util.Vector2;
 import processing.core.PApplet;
@@ -30,15 +37,24 @@ public class Enemy extends MovingEntity {
 	}
 
 	private static final float TWO_PI = (float) (Math.PI * 2);
+	public static final float FULL_CIRCLE = TWO_PI; //coneAngle of an enemy that lights all around itself
+	private static final double WAYPOINT_RADIUS = 1.5; //how close we have to get to a nav waypoint before heading for the next one
 
-	public /*static*/ final int viewDistance = 120; //distance that enemy light can reach in pixels
+	public static final int DEFAULT_VIEW_DISTANCE = 120;
+	public int viewDistance = DEFAULT_VIEW_DISTANCE; //distance that enemy light can reach in pixels
 
 	private float direction; //radians
+	private float facing; //direction of the last move this enemy made, in radians, which a cone of light points toward
+	public float coneAngle = FULL_CIRCLE; //width of this enemy's cone of light, in radians
 	private boolean pursuing; //used in render() so that we can know
 
 	private List<RouteNode> route;
 	private int waitTime;
 	private int routeIndex;
+	private List<List<Vector2>> legs; //cached nav paths from each route node to the next, indexed by the routeIndex they lead to
+	private List<Vector2> legStarts; //where each of the cached legs was planned from
+	private List<Vector2> leg; //nav waypoints currently being followed toward route.get(routeIndex)
+	private int legIndex;
 
 	public Enemy(Level level) {
 		super(level, randomColor());
@@ -54,29 +70,43 @@ public class Enemy extends MovingEntity {
 		this.route = route;
 	}
 
+	public Enemy(Level level, Vector2 pos, int color, List<RouteNode> route) {
+		super(level, pos, color);
+		this.route = route;
+	}
+
+	/** @return the nodes this enemy patrols between, or null if it just wanders */
+	public List<RouteNode> route() {
+		return route;
+	}
+
 	//helper function for constructor
 	public static int randomColor() {
 		int[] possibleColors = { Level.FLOOR_RED, Level.FLOOR_GREEN, Level.FLOOR_BLUE };
 		return possibleColors[(int)(LD31.getContext().random(possibleColors.length))];
 	}
 
-	/** Checks if the enemy should pursue the player by line of sight */
-	private boolean checkPursuing() {
-		//should only pursue if the player is in white light
-		if (context.pixels[level.player.screenY()*context.lastWidth + level.player.screenX()] != Level.FLOOR_WHITE) return false;
-		//should only pursue if the player is in line of sight
-		return Trace.line(x(), y(), level.player.x(), level.player.y(), (x, y) -> {
-			if (level.tiles[y*level.LEVEL_WIDTH + x] != Level.FLOOR_NONE)
-				return true;
-			return false;
-		});
+	/**
+	 * @param spotted whether the player is exposed to this enemy this tick (in white light and in line of sight),
+	 *                answered for all enemies at once by Level.lineOfSight before any of them move
+	 */
+	public void moveAuto(boolean spotted) {
+		final Vector2 oldPos = pos();
+		moveAutoImpl(spotted);
+		if (!pos().equals(oldPos))
+			facing = (float)pos().sub(oldPos).theta();
 	}
 
-	public void moveAuto() {
-		pursuing = checkPursuing();
+	private void moveAutoImpl(boolean spotted) {
+		pursuing = spotted;
 		if (pursuing) {
 			speedMultiplier = 1.25; //set speed slightly faster than player
-			move(level.player.pos().sub(pos()).theta()); //Pursue
+			//Pursue around walls using the shared flow field, falling back to a beeline once we're outside of it
+			double angle = level.playerField.direction(x(), y());
+			if (Double.isNaN(angle))
+				angle = level.player.pos().sub(pos()).theta();
+			move(angle);
+			leg = null; //we're getting pulled off course, so re-plan when we go back to our route
 		} else {
 			speedMultiplier = 0.75; //set speed slightly slower than player
 			if (route == null)
@@ -104,37 +134,165 @@ public class Enemy extends MovingEntity {
 				routeIndex = (routeIndex + 1) % route.size();
 				v = route.get(routeIndex).pos;
 				waitTime = route.get(routeIndex).waitTime;
+				startLeg(true); //we're standing on the previous node, so this leg is the same every lap
+			} else if (leg == null) {
+				startLeg(false); //just spawned or stopped pursuing, so plan from wherever we happen to be
 			}
-			move(v.sub(pos()).theta()); //move toward the next node
+			move(nextWaypoint(v).sub(pos()).theta()); //move toward the next node
 		} else {
 			//wait for the specified amount of time
 			waitTime -= 1;
 		}
 	}
 
-	public void rayTrace(final int[] array, final int viewDistance) {
+	//plans a path to the current route node through the level's nav graph, so routes don't need hand-placed corridor nodes
+	private void startLeg(boolean cache) {
+		legIndex = 0;
+		if (cache && cachedLeg(routeIndex) != null) {
+			leg = legs.get(routeIndex);
+			return;
+		}
+
+		leg = planLeg(x(), y(), routeIndex);
+		if (cache)
+			cacheLeg(routeIndex, pos(), leg);
+	}
+
+	//returns the nav waypoints from (x, y) to route node i
+	private List<Vector2> planLeg(int x, int y, int i) {
+		final Vector2 v = route.get(i).pos;
+		final List<Vector2> path = level.navGraph.path(x, y, (int)Math.round(v.x), (int)Math.round(v.y));
+		return path != null? path : Collections.<Vector2>emptyList(); //no path (e.g. the node is too close to a wall), so just beeline like we used to
+	}
+
+	private void cacheLeg(int i, Vector2 start, List<Vector2> path) {
+		if (legs == null) {
+			legs = new ArrayList<>(Collections.nCopies(route.size(), (List<Vector2>)null));
+			legStarts = new ArrayList<>(Collections.nCopies(route.size(), (Vector2)null));
+		}
+		legs.set(i, path);
+		legStarts.set(i, start);
+	}
+
+	/** @return the cached nav waypoints of the leg of this enemy's route that leads to route node i, or null if there aren't any */
+	public List<Vector2> cachedLeg(int i) {
+		return legs == null? null : legs.get(i);
+	}
+
+	/** @return where the cached leg that leads to route node i was planned from, or null if there isn't one */
+	public Vector2 cachedLegStart(int i) {
+		return legStarts == null? null : legStarts.get(i);
+	}
+
+	/** Plans and caches each leg of this enemy's route that isn't cached yet, from the node before it (for EditCheck, rather than walking whole laps) */
+	public void planLegs() {
+		if (route == null) return;
+		for (int i = 0; i < route.size(); ++i) {
+			if (cachedLeg(i) != null) continue;
+			final Vector2 from = route.get((i + route.size() - 1)%route.size()).pos;
+			final int x = (int)Math.round(from.x), y = (int)Math.round(from.y);
+			cacheLeg(i, new Vector2(x, y), planLeg(x, y, i));
+		}
+	}
+
+	/**
+	 * Forgets the nav paths this enemy has planned that come anywhere near the clusters (see NavGraph) of the tiles from
+	 * (x1, y1) to (x2, y2), after some of those tiles became walkable or stopped being, so that they're planned again
+	 * around the level as it is now before they're followed (see Level.fillRect())
+	 */
+	public void walkableChanged(int x1, int y1, int x2, int y2) {
+		if (route == null) return;
+		final int C = NavGraph.CLUSTER_SIZE;
+		x1 = x1/C*C;
+		y1 = y1/C*C;
+		x2 = (x2/C + 1)*C - 1;
+		y2 = (y2/C + 1)*C - 1;
+
+		if (leg != null && crosses(pos(), leg, legIndex, route.get(routeIndex).pos, x1, y1, x2, y2))
+			leg = null; //planned again from wherever we are by followRoute()
+		for (int i = 0; legs != null && i < legs.size(); ++i) {
+			if (legs.get(i) != null && crosses(legStarts.get(i), legs.get(i), 0, route.get(i).pos, x1, y1, x2, y2)) {
+				legs.set(i, null);
+				legStarts.set(i, null);
+			}
+		}
+	}
+
+	//helper function for walkableChanged(), whether the way from start through the waypoints (from the first one) to the goal
+	//comes within the given rectangle, a straight run at a time (so an empty leg, which is a beeline, is checked too)
+	private static boolean crosses(Vector2 start, List<Vector2> waypoints, int first, Vector2 goal, int x1, int y1, int x2, int y2) {
+		double ax = start.x, ay = start.y;
+		for (int i = first; i <= waypoints.size(); ++i) {
+			final Vector2 b = i < waypoints.size()? waypoints.get(i) : goal;
+			if (Math.min(ax, b.x) <= x2 && Math.max(ax, b.x) >= x1 && Math.min(ay, b.y) <= y2 && Math.max(ay, b.y) >= y1)
+				return true;
+			ax = b.x;
+			ay = b.y;
+		}
+		return false;
+	}
+
+	//helper function for followRoute(), returns the point we should currently be heading toward
+	private Vector2 nextWaypoint(Vector2 goal) {
+		while (legIndex < leg.size() && PApplet.dist((float)pos().x, (float)pos().y, (float)leg.get(legIndex).x, (float)leg.get(legIndex).y) < WAYPOINT_RADIUS)
+			++legIndex;
+		return legIndex < leg.size()? leg.get(legIndex) : goal;
+	}
+
+	/** @return the direction this enemy's cone of light points in, in radians */
+	public float facing() {
+		return facing;
+	}
+
+	/** @return true if the point (x, y) lies inside this enemy's cone of light, not accounting for distance or walls */
+	public boolean inCone(int x, int y) {
+		return inCone(x - x(), y - y(), facing);
+	}
+
+	//helper function for inCone() and rayTrace(), takes the offset from the enemy to the point
+	private boolean inCone(int dx, int dy, float facing) {
+		if (coneAngle >= FULL_CIRCLE || dx == 0 && dy == 0) return true;
+		final double angle = Math.IEEEremainder(Math.atan2(dy, dx) - facing, TWO_PI); //from -PI to PI
+		return Math.abs(angle) <= coneAngle/2;
+	}
+
+	/**
+	 * Lights up every cell of the given grid that this enemy can see
+	 * @param grid         the cells to light, usually the part of the light's bounding box that's on screen
+	 * @param viewDistance light radius in cells
+	 * @param rayStep      trace a ray to every rayStep-th cell around the edge of the light, 1 for full quality
+	 */
+	public void rayTrace(final LightGrid grid, final int viewDistance, final int rayStep) {
 		final int lightColor = color;
+		final int[] array = grid.cells;
 
-		final int xi = screenX(); //pre-calculating these gives a huge performance boost
-		final int yi = screenY();
+		//everything here is in cells of the lighting grid, which are scale x scale pixels
+		final int scale = grid.scale;
+		final int viewX = grid.originX;
+		final int viewY = grid.originY;
+
+		final int xi = Math.floorDiv(renderX(), scale) - viewX; //pre-calculating these gives a huge performance boost
+		final int yi = Math.floorDiv(renderY(), scale) - viewY;
 		final int vdsq = viewDistance*viewDistance; //don't judge, ever CPU cycle counts!
 
-		final int width = context.lastWidth;
-		final int height = context.lastHeight;
-		final int size = array.length;
+		final int width = grid.width;
+		final int height = grid.height;
+
+		//walls are looked up in the level's bitset rather than the lighting array, at the top-left pixel of each cell
+		final Level level = this.level;
 
 		//determine the most efficient way to do ray casting based on whether the enemy is inside or outside the level
+		final boolean onGrid = xi >= 0 && yi >= 0 && xi < width && yi < height;
 		PointPredicate op;
-		if (context.contains(xi, yi)) {
+		if (onGrid) {
 			op = (x, y) -> {
 				//restrict light to a circle
 				final int dx = x - xi, dy = y - yi;
 				if (dx*dx + dy*dy >= vdsq) return false; //distance formula
 
-				final int i = y*width + x; //we use this value twice, so pre-calculate it
-				if (array[i] == Level.FLOOR_NONE) return false;
+				if (level.wall((x + viewX)*scale, (y + viewY)*scale)) return false;
 
-				array[i] |= lightColor;
+				array[y*width + x] |= lightColor;
 				return true;
 			};
 		} else {
@@ -143,12 +301,59 @@ public class Enemy extends MovingEntity {
 				final int dx = x - xi, dy = y - yi;
 				if (dx*dx + dy*dy >= vdsq) return false; //distance formula
 
-				final int i = y*width + x; //we use this value thrice, so pre-calculate it
-				if (i < 0 || i >= size) return true; //avoid OutOfBoundsException
-				if (array[i] == Level.FLOOR_NONE) return false;
+				if (level.wall((x + viewX)*scale, (y + viewY)*scale)) return false;
 
-				array[i] |= lightColor;
+				//keep tracing through the part of the level that's off screen, but don't light it
+				if (x < 0 || y < 0 || x >= width || y >= height) return true;
 
+				array[y*width + x] |= lightColor;
+				return true;
+			};
+		}
+
+		//rays from a light outside the grid cross the open space before they reach it a whole block of the level at a time,
+		//since the cells there only need to be checked for walls, not lit (see OccupancyPyramid)
+		final RegionPredicate offGrid = (x, y, bounds) -> {
+			if (x >= 0 && y >= 0 && x < width && y < height) return false;
+			if (!clearAround(x, y, viewX, viewY, scale, bounds)) return false;
+
+			//keep the block to the side of the grid the cell is on, so that no cell that needs lighting is skipped
+			if      (x <  0     ) bounds[2] = PApplet.min(bounds[2], -1);
+			else if (x >= width ) bounds[0] = PApplet.max(bounds[0], width);
+			else if (y <  0     ) bounds[3] = PApplet.min(bounds[3], -1);
+			else                  bounds[1] = PApplet.max(bounds[1], height);
+			return true;
+		};
+
+		//when rays are skipped, the gaps between them are filled a row or column of cells at a time instead
+		final SpanPredicate rowFill = (y, x1, x2) -> {
+			if (blocked(x1 + viewX, y + viewY, x2 + viewX, y + viewY, scale)) return false;
+			if (y >= 0 && y < height)
+				for (int x = PApplet.max(x1, 0); x <= PApplet.min(x2, width - 1); ++x)
+					array[y*width + x] |= lightColor;
+			return true;
+		};
+		final SpanPredicate columnFill = (x, y1, y2) -> {
+			if (blocked(x + viewX, y1 + viewY, x + viewX, y2 + viewY, scale)) return false;
+			if (x >= 0 && x < width)
+				for (int y = PApplet.max(y1, 0); y <= PApplet.min(y2, height - 1); ++y)
+					array[y*width + x] |= lightColor;
+			return true;
+		};
+
+		//with a cone of light, rays outside the cone aren't traced at all, and the wedges next to them aren't filled
+		final boolean cone = coneAngle < FULL_CIRCLE;
+		final float facing = this.facing;
+
+		//and to know how far out to fill them, keep track of how far each ray gets
+		final boolean sparse = rayStep > 1;
+		final int[] reach = new int[2]; //{ |dx|, |dy| } from the light to the last cell the current ray reached
+		if (sparse) {
+			final PointPredicate light = op;
+			op = (x, y) -> {
+				if (!light.on(x, y)) return false;
+				reach[0] = Math.abs(x - xi);
+				reach[1] = Math.abs(y - yi);
 				return true;
 			};
 		}
@@ -175,53 +380,181 @@ public class Enemy extends MovingEntity {
 		final int dy1 = yi - miny, dy1sq = dy1*dy1;
 		final int dy2 = yi - maxy, dy2sq = dy2*dy2;
 
-		//trace top and bottom
-		for (int x = minx; x <= maxx; ++x) {
+		//how far the previous ray toward each edge got, and how far along x the corner rays got (for filling the left and right edges)
+		int lastX = minx, lastUp = 0, lastDown = 0;
+		int upLeft = 0, upRight = 0, downLeft = 0, downRight = 0;
+
+		//trace top and bottom (always including the corners, whatever the step)
+		for (int x = minx; x <= maxx; x = x < maxx? PApplet.min(x + rayStep, maxx) : maxx + 1) {
 			final int dx = xi - x, dxsq = dx*dx;
 
 			if (traceUp) {
+				reach[0] = reach[1] = 0;
+
 				//check if ray has a chance of going out of bounds and adjust accordingly
-				if (cautionUp && dy1sq + dxsq < vdsq) //distance formula
-					Trace.line(xi, yi, x, miny, op);
-				else
-					Trace.ray(xi, yi, x, miny, op);
+				if (!cone || inCone(x - xi, miny - yi, facing)) {
+					if (!onGrid)
+						Trace.march(xi, yi, x, miny, offGrid, op);
+					else if (cautionUp && dy1sq + dxsq < vdsq) //distance formula
+						Trace.line(xi, yi, x, miny, op);
+					else
+						Trace.ray(xi, yi, x, miny, op);
+				}
+
+				if (sparse) {
+					if (x > minx) fillWedge(rowFill, xi, yi, lastX, x, miny, PApplet.min(lastUp, reach[1]), vdsq, false);
+					lastUp = reach[1];
+					if (x == minx) upLeft  = reach[0];
+					if (x == maxx) upRight = reach[0];
+				}
 			}
 
 			if (traceDown) {
+				reach[0] = reach[1] = 0;
+
 				//check if ray has a chance of going out of bounds and adjust accordingly
-				if (cautionDown && dy2sq + dxsq < vdsq) //distance formula
-					Trace.line(xi, yi, x, maxy, op);
-				else
-					Trace.ray(xi, yi, x, maxy, op);
+				if (!cone || inCone(x - xi, maxy - yi, facing)) {
+					if (!onGrid)
+						Trace.march(xi, yi, x, maxy, offGrid, op);
+					else if (cautionDown && dy2sq + dxsq < vdsq) //distance formula
+						Trace.line(xi, yi, x, maxy, op);
+					else
+						Trace.ray(xi, yi, x, maxy, op);
+				}
+
+				if (sparse) {
+					if (x > minx) fillWedge(rowFill, xi, yi, lastX, x, maxy, PApplet.min(lastDown, reach[1]), vdsq, false);
+					lastDown = reach[1];
+					if (x == minx) downLeft  = reach[0];
+					if (x == maxx) downRight = reach[0];
+				}
 			}
+
+			lastX = x;
 		}
 
 		//pre-calculated constants to help check for each individual ray whether there is a chance of going out of bounds
 		final int dx1 = xi - minx, dx1sq = dx1*dx1;
 		final int dx2 = xi - maxx, dx2sq = dx2*dx2;
 
+		int lastY = miny, lastLeft = upLeft, lastRight = upRight;
+
 		//trace left and right (discounting corners because we already traced those in the loop above)
-		for (int y = miny + 1; y < maxy; ++y) {
+		for (int y = miny + rayStep; y < maxy; y += rayStep) {
 			final int dy = yi - y, dysq = dy*dy;
 
 			if (traceLeft) {
+				reach[0] = reach[1] = 0;
+
 				//check if ray has a chance of going out of bounds and adjust accordingly
-				if (cautionLeft && dx1sq + dysq < vdsq)
-					Trace.line(xi, yi, minx, y, op);
-				else
-					Trace.ray(xi, yi, minx, y, op);
+				if (!cone || inCone(minx - xi, y - yi, facing)) {
+					if (!onGrid)
+						Trace.march(xi, yi, minx, y, offGrid, op);
+					else if (cautionLeft && dx1sq + dysq < vdsq)
+						Trace.line(xi, yi, minx, y, op);
+					else
+						Trace.ray(xi, yi, minx, y, op);
+				}
+
+				if (sparse) {
+					fillWedge(columnFill, xi, yi, lastY, y, minx, PApplet.min(lastLeft, reach[0]), vdsq, true);
+					lastLeft = reach[0];
+				}
 			}
 
 			if (traceRight) {
+				reach[0] = reach[1] = 0;
+
 				//check if ray has a chance of going out of bounds and adjust accordingly
-				if (cautionRight && dx2sq + dysq < vdsq)
-					Trace.line(xi, yi, maxx, y, op);
-				else
-					Trace.ray(xi, yi, maxx, y, op);
+				if (!cone || inCone(maxx - xi, y - yi, facing)) {
+					if (!onGrid)
+						Trace.march(xi, yi, maxx, y, offGrid, op);
+					else if (cautionRight && dx2sq + dysq < vdsq)
+						Trace.line(xi, yi, maxx, y, op);
+					else
+						Trace.ray(xi, yi, maxx, y, op);
+				}
+
+				if (sparse) {
+					fillWedge(columnFill, xi, yi, lastY, y, maxx, PApplet.min(lastRight, reach[0]), vdsq, true);
+					lastRight = reach[0];
+				}
 			}
+
+			lastY = y;
+		}
+
+		//fill the gaps between the last rays toward the left and right edges and the bottom corners
+		if (sparse && maxy > miny) {
+			if (traceLeft)  fillWedge(columnFill, xi, yi, lastY, maxy, minx, PApplet.min(lastLeft,  downLeft ), vdsq, true);
+			if (traceRight) fillWedge(columnFill, xi, yi, lastY, maxy, maxx, PApplet.min(lastRight, downRight), vdsq, true);
+		}
+	}
+
+	/**
+	 * Lights up every cell of the given grid that this enemy can see, like rayTrace(), but from the exact polygon
+	 * the light can see instead of a fan of rays (see VisibilityPolygon)
+	 * @param viewDistance the light's radius, in cells of the grid
+	 */
+	public void castVisibility(final LightGrid grid, final int viewDistance) {
+		VisibilityPolygon.light(grid, level.wallSegments, renderX(), renderY(), viewDistance, color, coneAngle, facing);
+	}
+
+	/**
+	 * Helper function for rayTrace(), finds the largest wall-free block of the level around a cell of the lighting grid
+	 * @param clear filled in with the cells whose top-left pixels lie inside the block { x1, y1, x2, y2 }, inclusive
+	 * @return false if the cell's top-left pixel is a wall
+	 */
+	private boolean clearAround(int x, int y, int viewX, int viewY, int scale, int[] clear) {
+		if (!level.occupancy.clearBlock((x + viewX)*scale, (y + viewY)*scale, clear)) return false;
+
+		//convert the block from pixels to cells
+		clear[0] = (clear[0] + scale - 1)/scale - viewX;
+		clear[1] = (clear[1] + scale - 1)/scale - viewY;
+		clear[2] = clear[2]/scale - viewX;
+		clear[3] = clear[3]/scale - viewY;
+		return true;
+	}
+
+	/**
+	 * Helper function for rayTrace(), lights the cells between two neighboring rays when the ones in between were skipped.
+	 * Both rays run from (xi, yi) to cells a and b along the same edge of the light's bounding box, which lies at
+	 * edge along the major axis (y for the top and bottom edges, x for the left and right). The wedge between them is
+	 * filled a span at a time out to the given depth, and filling stops at the first span with anything blocking it,
+	 * so light never spills past a wall that one of the skipped rays could have been stopped by.
+	 */
+	private static void fillWedge(SpanPredicate span, int xi, int yi, int a, int b, int edge, int depth, int vdsq, boolean vertical) {
+		//work in (minor, major) coordinates, where the major axis points from the light toward the edge
+		final int ci = vertical? yi : xi;
+		final int mi = vertical? xi : yi;
+		final int extent = Math.abs(edge - mi), sign = edge > mi? 1 : -1;
+
+		for (int d = 1; d <= depth; ++d) {
+			//close to the light the two rays are still next to each other, so there's no gap to fill yet
+			final int pa = ci + Math.floorDiv(2*(a - ci)*d + extent, 2*extent); //rounded to the nearest cell, like the rays themselves
+			final int pb = ci + Math.floorDiv(2*(b - ci)*d + extent, 2*extent);
+			if (Math.abs(pa - pb) <= 1) continue;
+
+			final int halfWidth = (int)Math.sqrt(vdsq - 1 - d*d); //restrict light to a circle
+			final int from = PApplet.max(PApplet.min(pa, pb), ci - halfWidth);
+			final int to   = PApplet.min(PApplet.max(pa, pb), ci + halfWidth);
+			if (from <= to && !span.on(mi + sign*d, from, to))
+				return;
 		}
 	}
 
+	//helper function for rayTrace(), returns true if light can't pass through some tile in the given row or column of cells
+	private boolean blocked(int x1, int y1, int x2, int y2, int scale) {
+		if (scale == 1)
+			return y1 == y2? level.lineOfSight.blockedRow(y1, x1, x2) : level.lineOfSight.blockedColumn(x1, y1, y2);
+
+		for (int y = y1; y <= y2; ++y)
+			for (int x = x1; x <= x2; ++x)
+				if (level.wall(x*scale, y*scale))
+					return true;
+		return false;
+	}
+
 	@Override
 	public void render() {
 		//draw route lines, if one exists
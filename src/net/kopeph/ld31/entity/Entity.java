@@ -13,6 +13,7 @@ public abstract class Entity {
 	protected final Level level;
 
 	protected Vector2 pos = new Vector2();
+	private Vector2 lastPos; //position at the start of the current simulation tick, for interpolated drawing
 	protected final int color;
 
 	public Entity(Level level, int color) {
@@ -21,26 +22,26 @@ public abstract class Entity {
 		this.color = color;
 
 		//place the entity in a valid spot
-		do {
-			pos = new Vector2(context.random(SIZE, level.LEVEL_WIDTH - SIZE),
-			                  context.random(SIZE, level.LEVEL_HEIGHT - SIZE));
-		} while (!validPosition(x(), y()));
+		pos = level.randomSpawn();
+		lastPos = pos;
 	}
 
 	public Entity(Level level, int x, int y, int color) {
+		this(level, new Vector2(x, y), color);
+	}
+
+	/** Places the entity exactly where it's told to, e.g. where it was when a LevelSnapshot was taken */
+	public Entity(Level level, Vector2 pos, int color) {
 		this.context = LD31.getContext();
 		this.level = level;
 		this.color = color;
 
-		pos = new Vector2(x, y);
+		this.pos = pos;
+		lastPos = pos;
 	}
 
 	protected boolean validPosition(int x, int y) {
-		for(int i = 0 - SIZE; i < SIZE + 1; i++)
-			for(int j = 0 - SIZE; j < SIZE + 1; j++)
-				if (!level.validTile(x + j, y + i))
-					return false;
-		return true;
+		return level.walkable(x, y); //precomputed per level, equivalent to checking validTile() over the whole box
 	}
 
 	public int x() {
@@ -51,15 +52,35 @@ public abstract class Entity {
 		return (int)Math.round(pos.y);
 	}
 
+	/** Remembers the current position, must be called at the start of every simulation tick */
+	public void beginTick() {
+		lastPos = pos;
+	}
+
+	/** @return the x position to draw at, between the last two simulated positions according to the renderer's interpolation */
+	public int renderX() {
+		return (int)Math.round(lastPos.x + (pos.x - lastPos.x)*context.renderer.interpolation);
+	}
+
+	/** @return the y position to draw at, between the last two simulated positions according to the renderer's interpolation */
+	public int renderY() {
+		return (int)Math.round(lastPos.y + (pos.y - lastPos.y)*context.renderer.interpolation);
+	}
+
 	public int screenX() {
-		return x() - context.renderer.viewX;
+		return renderX() - context.renderer.viewX;
 	}
 
 	public int screenY() {
-		return y() - context.renderer.viewY;
+		return renderY() - context.renderer.viewY;
+	}
+
+	public int color() {
+		return color;
 	}
 
-	protected Vector2 pos() {
+	/** @return the exact position, which x() and y() round to the nearest tile */
+	public Vector2 pos() {
 		return pos;
 	}
 
@@ -18,6 +18,10 @@ public class MovingEntity extends Entity {
 		super(level, x, y, color);
 	}
 
+	public MovingEntity(Level level, Vector2 pos, int color) {
+		super(level, pos, color);
+	}
+
 	protected boolean move(double angle) {
 		return move(Vector2.polar(speedMultiplier * SP, angle));
 	}
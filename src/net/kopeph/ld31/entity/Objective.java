@@ -2,6 +2,7 @@ package net.kopeph.ld31.entity;
 
 import net.kopeph.ld31.Level;
 import net.kopeph.ld31.graphics.Trace;
+import net.kopeph.ld31.util.Vector2;
 import processing.core.PApplet;
 
 /** @author stuntddude */
@@ -16,6 +17,10 @@ public class Objective extends Entity {
 		super(level, x, y, COLOR);
 	}
 
+	public Objective(Level level, Vector2 pos) {
+		super(level, pos, COLOR);
+	}
+
 	@Override
 	public void render() {
 		super.render();
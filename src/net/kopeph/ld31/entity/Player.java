@@ -16,6 +16,10 @@ public final class Player extends MovingEntity {
 		super(level, x, y, COLOR);
 	}
 
+	public Player(Level level, Vector2 pos) {
+		super(level, pos, COLOR);
+	}
+
 	public boolean move(boolean w, boolean s, boolean a, boolean d) {
 		Vector2 offset = new Vector2(0, 0);
 		if (w) offset = offset.add(new Vector2( 0, -1));
@@ -0,0 +1,137 @@
+package net.kopeph.ld31.graphics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import net.kopeph.ld31.LD31;
+import net.kopeph.ld31.Level;
+
+/**
+ * Regression harness for the lighting and texturing passes (run with --golden <directory>).
+ *
+ * Renders a fixed set of seeded levels from a few camera positions each into an off-screen buffer, and compares
+ * every frame pixel for pixel against a golden copy stored in the given directory. Frames without a golden copy
+ * yet are saved as the new golden copy. Mismatch counts are reported alongside the time taken by each stage,
+ * so that an optimization can be checked for both speed and exactness in one run.
+ */
+public class GoldenFrames {
+	private static final long[] SEEDS = { 1, 2, 3, 4 };
+	private static final int[][] LEVEL_SIZES = { { 800, 600 }, { 1920, 1080 } };
+	private static final int CAMERAS = 4; //per level, the first one is centered on the player
+	private static final int REPEATS = 10; //renders per frame to average the timings over
+
+	private GoldenFrames() {
+		throw new AssertionError("No Instantiation of: " + getClass().getName()); //$NON-NLS-1$
+	}
+
+	/** @return the total number of mismatched pixels across all frames */
+	public static long run(String directory) {
+		final LD31 context = LD31.getContext();
+		final Renderer renderer = context.renderer;
+		final int width = context.lastWidth, height = context.lastHeight;
+		final int[] frame = new int[width*height];
+
+		new File(directory).mkdirs();
+		renderer.interpolation = 1; //draw entities exactly where they are
+		renderer.lightDetail = false; //compare full detail lighting, since reduced detail is allowed to differ
+		renderer.farLightInterval = 1; //and every light traced for the frame it's compared in, not left from an earlier one
+
+		long totalMismatches = 0, totalLighting = 0, totalTexture = 0;
+		int frames = 0, recorded = 0;
+
+		for (long seed : SEEDS) {
+			for (int[] size : LEVEL_SIZES) {
+				final Level level = new Level(size[0], size[1], seed);
+
+				//camera positions are picked from their own generator so they don't depend on how much randomness the level used
+				final Random cameras = new Random(seed);
+				for (int c = 0; c < CAMERAS; ++c) {
+					int viewX = level.player.x() - width/2;
+					int viewY = level.player.y() - height/2;
+					if (c > 0) {
+						viewX = cameras.nextInt(Math.max(1, level.LEVEL_WIDTH  - width /2)) - width /4;
+						viewY = cameras.nextInt(Math.max(1, level.LEVEL_HEIGHT - height/2)) - height/4;
+					}
+
+					long lighting = 0, texture = 0;
+					for (int r = 0; r < REPEATS; ++r) {
+						//nothing moves between repeats, so with the renderer's caches every repeat after the first would be a cache hit,
+						//and later cameras could reuse lights traced for earlier ones: each render is timed from cold instead
+						renderer.discardCaches();
+
+						long start = System.nanoTime();
+						renderer.calculateLighting(level, viewX, viewY);
+						lighting += System.nanoTime() - start;
+
+						start = System.nanoTime();
+						renderer.applyTextureAlt(frame);
+						texture += System.nanoTime() - start;
+					}
+					totalLighting += lighting/REPEATS;
+					totalTexture += texture/REPEATS;
+					++frames;
+
+					final String name = String.format("frame-%d-%dx%d-%d-at-%dx%d.bin.gz", seed, size[0], size[1], c, width, height); //$NON-NLS-1$
+					final File file = new File(directory, name);
+					String result;
+					try {
+						if (file.exists()) {
+							final long mismatches = compare(file, frame, width, height);
+							totalMismatches += mismatches;
+							result = mismatches == 0? "OK" : mismatches + " MISMATCHED"; //$NON-NLS-1$ //$NON-NLS-2$
+						} else {
+							save(file, frame, width, height);
+							++recorded;
+							result = "RECORDED"; //$NON-NLS-1$
+						}
+					} catch (IOException e) {
+						e.printStackTrace();
+						result = "ERROR"; //$NON-NLS-1$
+					}
+
+					System.out.printf("%s: LIGHTING %.3f ms, TEXTURE %.3f ms, %s\n", name, //$NON-NLS-1$
+						lighting/REPEATS/1000000.0, texture/REPEATS/1000000.0, result);
+				}
+			}
+		}
+
+		System.out.printf("GOLDEN_FRAMES: %d frames (%d newly recorded), %d mismatched pixels\n", frames, recorded, totalMismatches); //$NON-NLS-1$
+		System.out.printf("GOLDEN_LIGHTING_AVG: %.3f ms\n", totalLighting/(double)frames/1000000.0); //$NON-NLS-1$
+		System.out.printf("GOLDEN_TEXTURE_AVG: %.3f ms\n", totalTexture/(double)frames/1000000.0); //$NON-NLS-1$
+		System.out.println();
+
+		return totalMismatches;
+	}
+
+	//returns the number of pixels that differ, or every pixel if the golden frame was rendered at a different size
+	private static long compare(File file, int[] frame, int width, int height) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+			if (in.readInt() != width || in.readInt() != height)
+				return frame.length;
+
+			long mismatches = 0;
+			for (int i = 0; i < frame.length; ++i)
+				if (in.readInt() != frame[i])
+					++mismatches;
+			return mismatches;
+		}
+	}
+
+	private static void save(File file, int[] frame, int width, int height) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))))) {
+			out.writeInt(width);
+			out.writeInt(height);
+			for (int pixel : frame)
+				out.writeInt(pixel);
+		}
+	}
+}
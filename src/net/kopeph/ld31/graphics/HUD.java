@@ -18,7 +18,7 @@ public class HUD {
 	public static final String MSG_FOOTER =
 	"%s%s%s%s: Move %8s: Restart    Objective: Capture the Pink Square    Beware Of: White Light";
 	public static final String MSG_FOOTER_END =
-	    "           %8s: Restart";
+	    "           %8s: Restart    %s: Retry Same Map";
 	public static final String MSG_WIN = "YA DID IT!";
 	public static final String MSG_DIE = "You ded Jim!"; //Sorry, this project is not MSG free
 
@@ -32,6 +32,8 @@ public class HUD {
 			context.renderer.font.render(endFooterText, 4, context.height - 12);
 		} else if (context.gameState() == LD31.ST_RUNNING) {
 			context.renderer.font.render(footerText, 4, context.height - 12);
+			if (context.governor() != null)
+				context.renderer.font.render(context.governor().toString(), 4, 4);
 		}
 
 		context.renderer.font.render(buildVersionText, context.width - buildVersionText.length()*8 - 4, 4);
@@ -46,7 +48,8 @@ public class HUD {
 			InputHandler.getKeyIdString(input.getMainBindingFor(InputHandler.CTL_RIGHT)),
 			InputHandler.getKeyIdString(input.getMainBindingFor(InputHandler.CTL_RESET)));
 		endFooterText = String.format(HUD.MSG_FOOTER_END,
-			InputHandler.getKeyIdString(input.getMainBindingFor(InputHandler.CTL_RESET)));
+			InputHandler.getKeyIdString(input.getMainBindingFor(InputHandler.CTL_RESET)),
+			InputHandler.getKeyIdString(input.getMainBindingFor(InputHandler.CTL_RETRY)));
 	}
 
 	private static String buildVersion() {
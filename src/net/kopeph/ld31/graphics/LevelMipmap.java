@@ -0,0 +1,256 @@
+package net.kopeph.ld31.graphics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.kopeph.ld31.LD31;
+import net.kopeph.ld31.Level;
+import net.kopeph.ld31.spi.RowSource;
+import net.kopeph.ld31.util.TileStore;
+import processing.core.PApplet;
+import processing.core.PConstants;
+import processing.core.PImage;
+
+/**
+ * A level's tiles at every power of two scale, down to a single cell, for drawing the whole level small (thumbnails,
+ * the zoomed-out map view) at a cost that depends on how big it's drawn rather than on how big the level is.
+ *
+ * Level k has a cell for every 2^k x 2^k block of tiles (level 0 being the tiles themselves), holding the most common
+ * color of the four cells of level k - 1 under it, as a byte index into the palette of colors the level uses. A floor
+ * color wins a tie with the wall color, so a corridor one cell wide still shows at every level. Levels with more than
+ * MAX_CELLS cells are only passed through on the way up while the pyramid is built, not kept, so even a huge level's
+ * pyramid takes a megabyte or so; drawing uses the coarsest level with at least a cell per pixel drawn.
+ *
+ * Edits are passed up the pyramid from the tiles that changed (see Level.fillRect()), redoing only the cells over them.
+ */
+public final class LevelMipmap {
+	public static final int MAX_CELLS = 1 << 20; //in the finest level kept
+
+	private static final int MAX_COLORS = 256; //colors past this many share the last palette entry
+	private static final int WALL = 0; //palette index of Level.FLOOR_NONE
+
+	public final int width, height; //of the tiles
+	private final int[] widths, heights; //of each level, in cells
+	private final byte[][] levels; //the cells of each level, row-major, null for levels that aren't kept
+	private final int finest; //the first level that's kept
+
+	private final int[] palette;
+	private final Map<Integer, Integer> indices; //color -> palette index
+	private int colors;
+	private int lastColor, lastIndex; //the last color looked up, since most tiles are the same color as the one before them
+
+	/** Builds the pyramid of the given tiles, a pair of rows at a time for the first level and a level at a time after that */
+	public LevelMipmap(TileStore tiles) {
+		this(tiles.width(), tiles.height(), (y, dst) -> tiles.copyRow(y, 0, dst, 0, dst.length));
+	}
+
+	/**
+	 * Builds the pyramid of a level's tiles without needing them all at once, e.g. straight from a level file's tile runs
+	 * (see LevelInfo), asking for each row once, in order from the top
+	 */
+	public LevelMipmap(int width, int height, RowSource rows) {
+		this.width = width;
+		this.height = height;
+
+		int count = 2;
+		for (int w = (width + 1)/2, h = (height + 1)/2; w > 1 || h > 1; w = (w + 1)/2, h = (h + 1)/2)
+			++count;
+		widths = new int[count];
+		heights = new int[count];
+		widths[0] = width;
+		heights[0] = height;
+		int first = count - 1;
+		for (int k = 1; k < count; ++k) {
+			widths[k] = (widths[k - 1] + 1)/2;
+			heights[k] = (heights[k - 1] + 1)/2;
+			if (first == count - 1 && (long)widths[k]*heights[k] <= MAX_CELLS)
+				first = k;
+		}
+		finest = first;
+		levels = new byte[count][];
+
+		palette = new int[MAX_COLORS];
+		indices = new HashMap<>();
+		palette[WALL] = Level.FLOOR_NONE;
+		indices.put(Level.FLOOR_NONE, WALL);
+		colors = 1;
+		lastColor = Level.FLOOR_NONE;
+		lastIndex = WALL;
+
+		//level 1 straight from the tiles, then each level from the one before it, which is dropped unless it's kept
+		byte[] below = new byte[widths[1]*heights[1]];
+		final int[] top = new int[width], bottom = new int[width];
+		for (int cy = 0; cy < heights[1]; ++cy) {
+			final boolean pair = 2*cy + 1 < height;
+			rows.row(2*cy, top);
+			if (pair)
+				rows.row(2*cy + 1, bottom);
+			for (int cx = 0, x = 0; cx < widths[1]; ++cx, x += 2) {
+				final boolean right = x + 1 < width;
+				below[cy*widths[1] + cx] = (byte)mode(indexOf(top[x]), right? indexOf(top[x + 1]) : -1,
+				                                      pair? indexOf(bottom[x]) : -1, pair && right? indexOf(bottom[x + 1]) : -1);
+			}
+		}
+		if (finest == 1)
+			levels[1] = below;
+
+		for (int k = 2; k < count; ++k) {
+			final byte[] cells = new byte[widths[k]*heights[k]];
+			for (int cy = 0; cy < heights[k]; ++cy)
+				for (int cx = 0; cx < widths[k]; ++cx)
+					cells[cy*widths[k] + cx] = (byte)mode(cell(below, k - 1, 2*cx, 2*cy    ), cell(below, k - 1, 2*cx + 1, 2*cy    ),
+					                                      cell(below, k - 1, 2*cx, 2*cy + 1), cell(below, k - 1, 2*cx + 1, 2*cy + 1));
+			if (k >= finest)
+				levels[k] = cells;
+			below = cells;
+		}
+	}
+
+	private LevelMipmap(LevelMipmap original) {
+		width = original.width;
+		height = original.height;
+		widths = original.widths;
+		heights = original.heights;
+		finest = original.finest;
+		levels = new byte[original.levels.length][];
+		for (int k = finest; k < levels.length; ++k)
+			levels[k] = original.levels[k].clone();
+
+		palette = original.palette.clone();
+		indices = new HashMap<>(original.indices);
+		colors = original.colors;
+		lastColor = original.lastColor;
+		lastIndex = original.lastIndex;
+	}
+
+	/** @return a pyramid of its own with the same cells, e.g. for a copy of the level it was built from */
+	public LevelMipmap copy() {
+		return new LevelMipmap(this);
+	}
+
+	//returns the palette index of a color, adding it to the palette if it's new
+	private int indexOf(int color) {
+		if (color == lastColor) return lastIndex;
+		Integer index = indices.get(color);
+		if (index == null) {
+			index = PApplet.min(colors, MAX_COLORS - 1);
+			if (colors < MAX_COLORS) {
+				palette[colors++] = color;
+				indices.put(color, index);
+			}
+		}
+		lastColor = color;
+		lastIndex = index;
+		return index;
+	}
+
+	//returns cell (x, y) of level k, whose cells are given, or -1 if it's past the edge of the level
+	private int cell(byte[] cells, int k, int x, int y) {
+		return x < widths[k] && y < heights[k]? cells[y*widths[k] + x] & 0xFF : -1;
+	}
+
+	//returns the most common of up to four palette indices (-1 for none), a floor color winning a tie with the wall
+	private static int mode(int a, int b, int c, int d) {
+		if (a == b && a == c && a == d) return a; //most cells of most levels, which are mostly big rooms and thick walls
+
+		int best = -1, bestCount = 0;
+		for (int i = 0; i < 4; ++i) {
+			final int x = i == 0? a : i == 1? b : i == 2? c : d;
+			if (x < 0 || x == best) continue;
+			final int n = (a == x? 1 : 0) + (b == x? 1 : 0) + (c == x? 1 : 0) + (d == x? 1 : 0);
+			if (n > bestCount || n == bestCount && best == WALL) {
+				best = x;
+				bestCount = n;
+			}
+		}
+		return best;
+	}
+
+	/** Brings the cells over the tiles from (x1, y1) to (x2, y2) (inclusive) up to date after they've been edited */
+	public void update(TileStore tiles, int x1, int y1, int x2, int y2) {
+		for (int k = finest; k < levels.length; ++k)
+			for (int cy = y1 >> k; cy <= y2 >> k; ++cy)
+				for (int cx = x1 >> k; cx <= x2 >> k; ++cx)
+					levels[k][cy*widths[k] + cx] = (byte)compute(tiles, k, cx, cy);
+	}
+
+	//works out cell (x, y) of level k from the level below it, or from the tiles if that level isn't kept, -1 past the edge
+	private int compute(TileStore tiles, int k, int x, int y) {
+		if (x >= widths[k] || y >= heights[k]) return -1;
+		if (k == 0) return indexOf(tiles.get(x, y));
+		final int j = k - 1;
+		if (j > 0 && levels[j] != null)
+			return mode(cell(levels[j], j, 2*x, 2*y), cell(levels[j], j, 2*x + 1, 2*y), cell(levels[j], j, 2*x, 2*y + 1), cell(levels[j], j, 2*x + 1, 2*y + 1));
+		return mode(compute(tiles, j, 2*x, 2*y), compute(tiles, j, 2*x + 1, 2*y), compute(tiles, j, 2*x, 2*y + 1), compute(tiles, j, 2*x + 1, 2*y + 1));
+	}
+
+	/** @return the number of levels, including level 0 (the tiles, which is never kept) */
+	public int levels() {
+		return levels.length;
+	}
+
+	/** @return the coarsest kept level with at least as many cells across and down as the given number of pixels, or the finest kept one */
+	public int levelFor(int pixelsWide, int pixelsHigh) {
+		int k = levels.length - 1;
+		while (k > finest && (widths[k] < pixelsWide || heights[k] < pixelsHigh))
+			--k;
+		return k;
+	}
+
+	public int width(int level) {
+		return widths[level];
+	}
+
+	public int height(int level) {
+		return heights[level];
+	}
+
+	/** @return the color of cell (x, y) of a kept level */
+	public int color(int level, int x, int y) {
+		return palette[levels[level][y*widths[level] + x] & 0xFF];
+	}
+
+	/**
+	 * Draws the whole level scaled to w x h pixels (nearest neighbour) into row-major pixels dstWidth wide, with its
+	 * top-left corner at (x0, y0), which must leave it all inside them
+	 */
+	public void draw(int[] dst, int dstWidth, int x0, int y0, int w, int h) {
+		final int k = levelFor(w, h);
+		final byte[] cells = levels[k];
+		final int cellsWide = widths[k], cellsHigh = heights[k];
+
+		//which cell each column of pixels reads from, so it isn't worked out for every pixel
+		final int[] columns = new int[w];
+		for (int x = 0; x < w; ++x)
+			columns[x] = (int)((long)x*cellsWide/w);
+
+		for (int y = 0; y < h; ++y) {
+			final int row = (int)((long)y*cellsHigh/h)*cellsWide, out = (y0 + y)*dstWidth + x0;
+			for (int x = 0; x < w; ++x)
+				dst[out + x] = palette[cells[row + columns[x]] & 0xFF];
+		}
+	}
+
+	/** @return an image of the whole level, as big as fits in maxWidth x maxHeight with the level's proportions */
+	public PImage thumbnail(int maxWidth, int maxHeight) {
+		final double scale = Math.min((double)maxWidth/width, (double)maxHeight/height);
+		final int w = Math.max(1, (int)(width*scale)), h = Math.max(1, (int)(height*scale));
+		final PImage image = LD31.getContext().createImage(w, h, PConstants.RGB);
+		image.loadPixels();
+		draw(image.pixels, w, 0, 0, w, h);
+		image.updatePixels();
+		return image;
+	}
+
+	/** @return whether every kept level has the same cells as the other pyramid's, in colors (for EditCheck) */
+	public boolean sameAs(LevelMipmap other) {
+		if (other.levels.length != levels.length || other.finest != finest) return false;
+		for (int k = finest; k < levels.length; ++k) {
+			for (int y = 0; y < heights[k]; ++y)
+				for (int x = 0; x < widths[k]; ++x)
+					if (color(k, x, y) != other.color(k, x, y))
+						return false;
+		}
+		return true;
+	}
+}
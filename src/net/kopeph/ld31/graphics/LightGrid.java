@@ -0,0 +1,32 @@
+package net.kopeph.ld31.graphics;
+
+import java.util.Arrays;
+
+/**
+ * A rectangle of lighting cells (each scale x scale pixels, see Renderer.lightScale) anchored to the level rather than the screen.
+ * cells[y*width + x] holds the colors of the light reaching the cell at (originX + x, originY + y).
+ */
+public class LightGrid {
+	public int[] cells = new int[0];
+	public int originX, originY, width, height;
+	public int scale = 1;
+
+	/** Moves and resizes the grid, reusing its storage when it's big enough, and clears it */
+	public void reset(int originX, int originY, int width, int height, int scale) {
+		this.originX = originX;
+		this.originY = originY;
+		this.width = width;
+		this.height = height;
+		this.scale = scale;
+
+		if (cells.length < width*height)
+			cells = new int[width*height];
+		else
+			Arrays.fill(cells, 0, width*height, 0);
+	}
+
+	/** @return true if the grid covers exactly the given rectangle of cells (inclusive) */
+	public boolean covers(int x1, int y1, int x2, int y2) {
+		return originX == x1 && originY == y1 && width == x2 - x1 + 1 && height == y2 - y1 + 1;
+	}
+}
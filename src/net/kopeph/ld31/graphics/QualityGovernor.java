@@ -0,0 +1,96 @@
+package net.kopeph.ld31.graphics;
+
+import net.kopeph.ld31.util.Profiler;
+import processing.core.PApplet;
+
+/**
+ * Adjusts the renderer's quality settings to keep the work done each frame within a time budget (enabled with --frame-budget).
+ *
+ * The cost of each frame is taken from the profiler and smoothed out, and quality is only lowered after the budget has been
+ * overrun for a while, and only raised again after there has been plenty of room to spare for even longer, so that it
+ * settles on one level instead of flickering between two.
+ *
+ * The render scale chosen in the settings menu is the finest the governor will use: it only ever coarsens it (through
+ * Renderer.governedScale), so a player who picked a lower resolution doesn't get full resolution back whenever there's
+ * room to spare.
+ */
+public class QualityGovernor {
+	//quality levels from best to worst, as { render scale, ray step, far light update interval }
+	private static final int[][] LEVELS = {
+		{ 1, 1, 1 },
+		{ 1, 1, 2 },
+		{ 1, 4, 2 },
+		{ 2, 4, 2 },
+		{ 2, 4, 4 },
+		{ 3, 8, 4 },
+	};
+
+	private static final double SMOOTHING = 0.1; //weight of the newest frame in the moving averages
+	private static final double HEADROOM = 0.7; //fraction of the budget the cost has to stay under before quality is raised
+	private static final int FRAMES_TO_LOWER = 20, FRAMES_TO_RAISE = 120;
+
+	//single-threaded texture pass cost (in ms) above which it's worth splitting across threads, and below which it isn't
+	private static final double THREAD_TEXTURE_ABOVE = 2.0, UNTHREAD_TEXTURE_BELOW = 1.0;
+
+	public final double budget; //in milliseconds
+
+	private double cost, textureCost; //moving averages, in milliseconds
+	private int level, framesOver, framesUnder;
+	private int scale = 1; //the render scale used, counting the one chosen in the settings menu
+	private boolean started, threaded = true;
+
+	public QualityGovernor(double budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Measures the frame that was just drawn, and adjusts the renderer's settings for the next one
+	 * @param ticks the number of simulation ticks run during the frame
+	 */
+	public void update(Profiler profiler, int ticks, Renderer renderer) {
+		final double frame = profiler.millis(Profiler.LIGHTING) + profiler.millis(Profiler.TEXTURE) +
+		                     profiler.millis(Profiler.PIXEL_UPDATE) + profiler.millis(Profiler.ENTITY_DRAW) +
+		                     ticks*(profiler.millis(Profiler.PLAYER_MOVE) + profiler.millis(Profiler.ENEMY_PATH));
+		//estimate what the texture pass would cost on one thread, so the estimate doesn't jump when threading is toggled
+		final double texture = profiler.millis(Profiler.TEXTURE)*(renderer.threadedTexture? renderer.renderingThreads() : 1);
+
+		if (!started) {
+			cost = frame;
+			textureCost = texture;
+			started = true;
+		} else {
+			cost += (frame - cost)*SMOOTHING;
+			textureCost += (texture - textureCost)*SMOOTHING;
+		}
+
+		framesOver  = cost > budget          ? framesOver  + 1 : 0;
+		framesUnder = cost < budget*HEADROOM ? framesUnder + 1 : 0;
+
+		if (framesOver >= FRAMES_TO_LOWER && level < LEVELS.length - 1) {
+			++level;
+			framesOver = 0;
+		} else if (framesUnder >= FRAMES_TO_RAISE && level > 0) {
+			--level;
+			framesUnder = 0;
+		}
+
+		if (textureCost > THREAD_TEXTURE_ABOVE)
+			threaded = true;
+		else if (textureCost < UNTHREAD_TEXTURE_BELOW)
+			threaded = false;
+
+		renderer.threadedTexture = threaded;
+		renderer.governedScale = LEVELS[level][0];
+		scale = PApplet.max(renderer.renderScale, renderer.governedScale);
+		renderer.rayStep = LEVELS[level][1];
+		renderer.farLightInterval = LEVELS[level][2];
+	}
+
+	/** @return a summary of the current decisions, for the HUD */
+	@Override
+	public String toString() {
+		return String.format("Quality %d/%d: Scale 1/%d, Rays 1/%d, Far Lights 1/%d, Texture %s, %.1f/%.1f ms", //$NON-NLS-1$
+			LEVELS.length - level, LEVELS.length, scale, LEVELS[level][1], LEVELS[level][2],
+			threaded? "Threaded" : "Single", cost, budget); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
@@ -1,10 +1,17 @@
 package net.kopeph.ld31.graphics;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import net.kopeph.ld31.LD31;
 import net.kopeph.ld31.Level;
 import net.kopeph.ld31.entity.Enemy;
+import net.kopeph.ld31.entity.Entity;
+import net.kopeph.ld31.spi.TileListener;
 import net.kopeph.ld31.util.ThreadPool;
 import net.kopeph.ld31.util.Util;
 import processing.core.PApplet;
@@ -24,10 +31,52 @@ public class Renderer {
 	public Font font;
 
 	public int viewX = 0, viewY = 0;
+	public double interpolation = 1; //how far between their last two simulated positions entities are drawn, from 0 to 1
+
+	public static final int MAX_RENDER_SCALE = 3;
+	public int renderScale = 1; //lighting is calculated once per renderScale x renderScale block of pixels, takes effect next frame
+	public int governedScale = 1; //set by QualityGovernor, which can only make the render scale coarser than renderScale, not finer
+	public int rayStep = 1; //lights trace a ray to every rayStep-th cell around their edge
+	public boolean lightDetail = true; //whether lights that contribute little to the frame trace fewer rays (see rayStepFor())
+	public int farLightInterval = 2; //frames a far light that has moved may go before being traced again (1 to trace every light every frame it moves)
+	public boolean threadedTexture = true; //whether the texture pass is split across the rendering threads
+	public boolean polygonLighting = false; //whether lights are filled in from visibility polygons instead of traced with rays (see VisibilityPolygon)
+
+	//the grid lighting was last calculated on, one cell per lightScale x lightScale block of level pixels, aligned to the level
+	public int lightScale = 1;
+	public int lightWidth, lightHeight; //in cells
+	public int lightViewX, lightViewY; //cell containing the top-left pixel of the view
 
 	private final LD31 context;
 	private final ThreadPool renderingPool = new ThreadPool();
 
+	//light level of detail thresholds (see rayStepFor())
+	private static final double LOD_PARTIAL = 0.25;  //fraction of a light's bounding box on screen below which it traces a quarter of its rays
+	private static final double LOD_SLIVER  = 0.0625; //and below which it traces an eighth of them
+	private static final double LOD_FAR     = 3;      //distance from the player, in light radii, beyond which a light traces a quarter of its rays
+
+	//lighting layers, combined per pixel by the texture pass
+	private int[] base;  //unlit level colors, scrolled with the view instead of being re-copied every frame (see scrollBase())
+	private int[] light; //OR of every light color that reaches each screen pixel
+	private final List<int[]> litRects = new ArrayList<>(); //{ x0, y0, x1, y1 } of each light drawn last frame, to clear next frame
+	private Level baseLevel; //level the base layer was filled from
+	private int baseViewX, baseViewY; //view the base layer currently holds, in cells
+	private final TileListener editListener = this::tilesChanged; //registered with each level drawn, kept so it's only registered once
+
+	//each light's last trace, kept so it can be reused in frames where the light hasn't moved
+	private final Map<Enemy, CachedLight> lightCache = new IdentityHashMap<>();
+	private Level cacheLevel; //level the cached lights belong to
+	private final List<LightGrid> drawnLights = new ArrayList<>(); //caches to be combined into the light layer this frame, in the same order as litRects
+	private final List<CachedLight> deferredLights = new ArrayList<>(); //far lights that have moved, waiting their turn to be traced again
+
+	//where the map view last drew the level on screen, and how many pixels it drew each tile at
+	private static final int MAP_MARGIN = 20; //pixels around the map
+	private int mapX, mapY;
+	private double mapScale;
+
+	//per-column lookups for the texture pass, so it doesn't have to divide for every pixel
+	private int[] columnTexture = new int[0], columnBase = new int[0], columnLight = new int[0];
+
 	public Renderer() {
 		context = LD31.getContext();
 
@@ -57,33 +106,59 @@ public class Renderer {
 		textureBlack   = Util.crop(rawTextureBlack  , width, height);
 	}
 
-	public void calculateLighting(int[] lighting, Level level) {
-		viewX = level.player.x() - context.lastWidth/2;
-		viewY = level.player.y() - context.lastHeight/2;
+	public void calculateLighting(Level level) {
+		calculateLighting(level, level.player.renderX() - context.lastWidth/2, level.player.renderY() - context.lastHeight/2);
+	}
 
-		Arrays.fill(lighting, Level.FLOOR_NONE);
+	/**
+	 * Renders the lighting for a view whose top-left corner is at (viewX, viewY) in the level, instead of centered on the player.
+	 * The result is kept in two layers, base and light, which are combined by the texture pass (see lightingAt()).
+	 * Both layers are on a grid of lightScale x lightScale pixel cells, so at a render scale above 1 there is
+	 * less to trace, and the texture pass scales the lighting back up to full resolution (nearest neighbor).
+	 */
+	public void calculateLighting(Level level, int viewX, int viewY) {
+		final int scale = PApplet.max(1, PApplet.min(PApplet.max(renderScale, governedScale), MAX_RENDER_SCALE));
+		//enough cells to cover the screen however the view lines up with the grid
+		final int width  = (context.lastWidth  + 2*scale - 2)/scale;
+		final int height = (context.lastHeight + 2*scale - 2)/scale;
 
-		//crop the tiles array into the pixels array
-		int sourceX = PApplet.max(viewX, 0);
-		int sourceY = PApplet.max(viewY, 0);
+		if (base == null || width != lightWidth || height != lightHeight || scale != lightScale) {
+			lightScale = scale;
+			lightWidth = width;
+			lightHeight = height;
+			base = new int[width*height];
+			light = new int[width*height];
+			litRects.clear();
+			baseLevel = null;
+		}
 
-		int destinationX = PApplet.max(-viewX, 0);
-		int destinationY = PApplet.max(-viewY, 0);
+		this.viewX = viewX;
+		this.viewY = viewY;
+		lightViewX = Math.floorDiv(viewX, scale);
+		lightViewY = Math.floorDiv(viewY, scale);
+		scrollBase(level, lightViewX, lightViewY);
 
-		int cropWidth = PApplet.min(level.LEVEL_WIDTH - sourceX, context.lastWidth - destinationX);
-		int cropHeight = PApplet.min(level.LEVEL_HEIGHT - sourceY, context.lastHeight - destinationY);
+		//only clear the parts of the light layer that were actually lit last frame
+		for (int[] r : litRects)
+			for (int y = r[1]; y <= r[3]; ++y)
+				Arrays.fill(light, y*width + r[0], y*width + r[2] + 1, 0);
+		litRects.clear();
 
-		for (int y = destinationY; y < destinationY + cropHeight; ++y) {
-			System.arraycopy(level.tiles, (y + viewY)*level.LEVEL_WIDTH + sourceX, lighting, y*context.lastWidth + destinationX, cropWidth);
+		if (level != cacheLevel) {
+			lightCache.clear();
+			cacheLevel = level;
 		}
+		drawnLights.clear();
+		deferredLights.clear();
 
 		for (final Enemy e : level.enemies) {
-			final int x = e.screenX(), y = e.screenY(), vd = e.viewDistance, vdsq = vd*vd;
-			final int w = context.lastWidth - 1, h = context.lastHeight - 1;
+			final int x = Math.floorDiv(e.renderX(), scale) - lightViewX, y = Math.floorDiv(e.renderY(), scale) - lightViewY;
+			final int vd = e.viewDistance/scale, vdsq = vd*vd; //light radius in cells
+			final int w = width - 1, h = height - 1;
 
 			//only render enemies that have a chance of casting light into the scene
-			if (x > -e.viewDistance + 1 && x < context.lastWidth + e.viewDistance - 2 &&
-				y > -e.viewDistance + 1 && y < context.lastHeight + e.viewDistance - 2) {
+			if (x > -vd + 1 && x < width + vd - 2 &&
+				y > -vd + 1 && y < height + vd - 2) {
 
 				//distance formula to check for circle intersection with screen corners (minor optimization to ignore certain enemies)
 				if (x < 0 && y < 0 &&      x * x      +      y * y      >= vdsq) continue;
@@ -91,12 +166,224 @@ public class Renderer {
 				if (x > w && y < 0 && (x - w)*(x - w) +      y * y      >= vdsq) continue;
 				if (x > w && y > h && (x - w)*(x - w) + (y - h)*(y - h) >= vdsq) continue;
 
-				//create a new thread to run the lighting process of each enemy
-				renderingPool.post(() -> { e.rayTrace(lighting, e.viewDistance); });
+				//the on-screen part of the light's bounding box
+				final int[] rect = { PApplet.max(x - vd + 1, 0), PApplet.max(y - vd + 1, 0), PApplet.min(x + vd - 1, w), PApplet.min(y + vd - 1, h) };
+				final int step = polygonLighting? 0 : lightDetail? rayStepFor(e, level, rect, vd) : rayStep; //0 for a visibility polygon
+
+				CachedLight c = lightCache.get(e);
+				if (c == null) {
+					c = new CachedLight(e);
+					lightCache.put(e, c);
+				}
+				drawnLights.add(c.grid);
+
+				//decide whether the light's last trace can be reused, see CachedLight
+				final int cx = x + lightViewX, cy = y + lightViewY;
+				final boolean moved = c.x != cx || c.y != cy || e.coneAngle < Enemy.FULL_CIRCLE && c.facing != e.facing();
+				final boolean reshaped = c.grid.cells.length == 0 || c.step != step || c.grid.scale != scale || c.edited ||
+				                         !moved && !c.grid.covers(rect[0] + lightViewX, rect[1] + lightViewY, rect[2] + lightViewX, rect[3] + lightViewY);
+
+				if (reshaped || moved && !far(e, level)) {
+					trace(c, cx, cy, rect, vd, step, scale);
+				} else if (moved) {
+					c.pending = new int[] { cx, cy, rect[0] + lightViewX, rect[1] + lightViewY, rect[2] + lightViewX, rect[3] + lightViewY, vd, step };
+					deferredLights.add(c);
+				}
+			}
+		}
+
+		//far lights that moved are traced round robin, the stalest first, so that each one is at most farLightInterval frames behind
+		deferredLights.sort((a, b) -> b.stale - a.stale);
+		final int interval = PApplet.max(1, farLightInterval);
+		final int due = (deferredLights.size() + interval - 1)/interval;
+		for (int i = 0; i < deferredLights.size(); ++i) {
+			final CachedLight c = deferredLights.get(i);
+			if (i < due || c.stale + 1 >= interval) {
+				final int[] p = c.pending;
+				trace(c, p[0], p[1], new int[] { p[2] - lightViewX, p[3] - lightViewY, p[4] - lightViewX, p[5] - lightViewY }, p[6], p[7], scale);
+			} else {
+				++c.stale;
 			}
 		}
 
 		renderingPool.forceSync();
+		composeLights();
+	}
+
+	/** Forgets the base layer and every cached light, so the next frame is drawn entirely from scratch */
+	public void discardCaches() {
+		baseLevel = null;
+		lightCache.clear();
+		cacheLevel = null;
+	}
+
+	//traces a light into its cache on one of the rendering threads, rect is the on-screen part of the light's bounding box
+	private void trace(CachedLight c, int cx, int cy, int[] rect, int vd, int step, int scale) {
+		c.x = cx;
+		c.y = cy;
+		c.step = step;
+		c.facing = c.enemy.facing();
+		c.stale = 0;
+		c.edited = false;
+		c.grid.reset(rect[0] + lightViewX, rect[1] + lightViewY, rect[2] - rect[0] + 1, rect[3] - rect[1] + 1, scale);
+		if (step == 0)
+			renderingPool.post(() -> { c.enemy.castVisibility(c.grid, vd); });
+		else
+			renderingPool.post(() -> { c.enemy.rayTrace(c.grid, vd, step); });
+	}
+
+	//a light is far if it's more than LOD_FAR light radii from the player, beyond which its light is mostly scenery
+	private static boolean far(Enemy e, Level level) {
+		return PApplet.dist(e.renderX(), e.renderY(), level.player.renderX(), level.player.renderY()) > LOD_FAR*e.viewDistance;
+	}
+
+	//ORs the cached light of every light drawn this frame into the light layer, in horizontal bands across the rendering threads
+	private void composeLights() {
+		for (Iterator<LightGrid> it = drawnLights.iterator(); it.hasNext();) {
+			final LightGrid g = it.next();
+
+			//the part of the cache that's on screen (a deferred light's cache may be from a slightly different view)
+			final int x1 = PApplet.max(g.originX, lightViewX) - lightViewX, x2 = PApplet.min(g.originX + g.width,  lightViewX + lightWidth ) - 1 - lightViewX;
+			final int y1 = PApplet.max(g.originY, lightViewY) - lightViewY, y2 = PApplet.min(g.originY + g.height, lightViewY + lightHeight) - 1 - lightViewY;
+			if (x1 > x2 || y1 > y2)
+				it.remove();
+			else
+				litRects.add(new int[] { x1, y1, x2, y2 });
+		}
+
+		final float taskSize = (float)lightHeight/renderingPool.poolSize;
+		for (int i = 0; i < renderingPool.poolSize; ++i) {
+			final int j = i;
+			renderingPool.post(() -> { composeLightsImpl(PApplet.round(j*taskSize), PApplet.round((j+1)*taskSize)); });
+		}
+
+		renderingPool.forceSync();
+	}
+
+	private void composeLightsImpl(final int yBegin, final int yEnd) {
+		for (int i = 0; i < drawnLights.size(); ++i) {
+			final LightGrid g = drawnLights.get(i);
+			final int[] r = litRects.get(i);
+			for (int y = PApplet.max(r[1], yBegin); y <= PApplet.min(r[3], yEnd - 1); ++y) {
+				final int src = (y + lightViewY - g.originY)*g.width - g.originX + lightViewX, dst = y*lightWidth;
+				for (int x = r[0]; x <= r[2]; ++x)
+					light[dst + x] |= g.cells[src + x];
+			}
+		}
+	}
+
+	/**
+	 * Level of detail for lights: a light that only pokes into the edge of the view, or is more than LOD_FAR of its view
+	 * distance from the player, traces rays to fewer points around its edge (the gaps are filled in more cheaply, see
+	 * Enemy.rayTrace()), so that it costs roughly in proportion to what it adds to the frame. A long-range light traces
+	 * fewer again in proportion to its range, however close it is, and no light traces more than rayStep allows. This
+	 * only changes what's drawn: whether the player is caught is worked out by Level.inWhiteLight(), not from the lights.
+	 * @param rect the part of the light's bounding box that's on screen, in cells
+	 */
+	private int rayStepFor(Enemy e, Level level, int[] rect, int vd) {
+		final int side = 2*vd - 1;
+		final double visible = (double)(rect[2] - rect[0] + 1)*(rect[3] - rect[1] + 1)/(side*side);
+		final double distance = PApplet.dist(e.renderX(), e.renderY(), level.player.renderX(), level.player.renderY());
+
+		int step = 1;
+		if (visible < LOD_PARTIAL || distance > LOD_FAR*e.viewDistance) step = 4;
+		if (visible < LOD_SLIVER) step = 8;
+		//long-range lights keep about as many rays as a normal one, since the gaps between them are far cheaper to fill
+		step = PApplet.max(step, Integer.highestOneBit(PApplet.max(1, e.viewDistance/Enemy.DEFAULT_VIEW_DISTANCE)));
+		return PApplet.max(step, rayStep);
+	}
+
+	/**
+	 * The base layer holds the unlit level colors for the current view, addressed toroidally: the cell at
+	 * (x, y) is stored at base[floorMod(y, lightHeight)*lightWidth + floorMod(x, lightWidth)]. Scrolling the view
+	 * therefore leaves every cell that stays on screen where it is, and only the newly exposed rows and
+	 * columns have to be copied in from the level.
+	 */
+	private void scrollBase(Level level, int viewX, int viewY) {
+		final int width = lightWidth, height = lightHeight;
+		final int dx = viewX - baseViewX, dy = viewY - baseViewY;
+
+		if (level != baseLevel || Math.abs(dx) >= width || Math.abs(dy) >= height) {
+			blitBase(level, viewX, viewY, width, height);
+			level.addTileListener(editListener);
+		} else {
+			//rows that scrolled into view, across the full width
+			if (dy > 0) blitBase(level, viewX, baseViewY + height, width, dy);
+			if (dy < 0) blitBase(level, viewX, viewY, width, -dy);
+
+			//columns that scrolled into view, for the rows that were already on screen
+			final int y0 = PApplet.max(viewY, baseViewY), rows = height - Math.abs(dy);
+			if (dx > 0) blitBase(level, baseViewX + width, y0, dx, rows);
+			if (dx < 0) blitBase(level, viewX, y0, -dx, rows);
+		}
+
+		baseLevel = level;
+		baseViewX = viewX;
+		baseViewY = viewY;
+	}
+
+	//brings the base layer and the cached lights up to date after an edit to the level's tiles (see Level.fillRect())
+	private void tilesChanged(Level level, int x1, int y1, int x2, int y2) {
+		if (level == baseLevel) {
+			//cells take the color of their top-left pixel, so only cells whose top-left pixel was edited change
+			final int scale = lightScale;
+			final int cx1 = PApplet.max(Math.floorDiv(x1 + scale - 1, scale), baseViewX), cx2 = PApplet.min(Math.floorDiv(x2, scale), baseViewX + lightWidth  - 1);
+			final int cy1 = PApplet.max(Math.floorDiv(y1 + scale - 1, scale), baseViewY), cy2 = PApplet.min(Math.floorDiv(y2, scale), baseViewY + lightHeight - 1);
+			if (cx1 <= cx2 && cy1 <= cy2)
+				blitBase(level, cx1, cy1, cx2 - cx1 + 1, cy2 - cy1 + 1);
+		}
+
+		if (level == cacheLevel) {
+			//a light can be blocked anywhere within its radius, including off screen, so its whole reach counts
+			for (CachedLight c : lightCache.values()) {
+				final int r = c.enemy.viewDistance + c.grid.scale, lx = c.x*c.grid.scale, ly = c.y*c.grid.scale;
+				if (x2 >= lx - r && x1 <= lx + r && y2 >= ly - r && y1 <= ly + r)
+					c.edited = true;
+			}
+		}
+	}
+
+	//copies a rectangle of cells into the toroidal base layer, each cell taking the color of its top-left pixel, and anything outside the level a wall
+	private void blitBase(Level level, int x0, int y0, int w, int h) {
+		final int width = lightWidth, height = lightHeight, scale = lightScale;
+		final int levelWidth = (level.LEVEL_WIDTH + scale - 1)/scale, levelHeight = (level.LEVEL_HEIGHT + scale - 1)/scale; //in cells
+
+		for (int y = y0; y < y0 + h; ++y) {
+			final int row = Math.floorMod(y, height)*width;
+			final boolean rowInLevel = y >= 0 && y < levelHeight;
+
+			//split the row where it wraps around the toroidal buffer
+			for (int x = x0; x < x0 + w;) {
+				final int bx = Math.floorMod(x, width);
+				final int run = PApplet.min(x0 + w - x, width - bx);
+
+				//clip to the level horizontally
+				final int inStart = PApplet.max(x, 0), inEnd = PApplet.min(x + run, levelWidth);
+				if (!rowInLevel || inStart >= inEnd) {
+					Arrays.fill(base, row + bx, row + bx + run, Level.FLOOR_NONE);
+				} else {
+					Arrays.fill(base, row + bx, row + bx + (inStart - x), Level.FLOOR_NONE);
+					if (level.spans != null) {
+						level.spans.blit(y*scale, inStart*scale, scale, base, row + bx + (inStart - x), inEnd - inStart);
+					} else if (scale == 1) {
+						level.tiles.copyRow(y, inStart, base, row + bx + (inStart - x), inEnd - inStart);
+					} else {
+						for (int c = inStart; c < inEnd; ++c)
+							base[row + bx + (c - x)] = level.tiles.get(c*scale, y*scale);
+					}
+					Arrays.fill(base, row + bx + (inEnd - x), row + bx + run, Level.FLOOR_NONE);
+				}
+
+				x += run;
+			}
+		}
+	}
+
+	/** @return the lit level color of the given screen pixel as of the last calculateLighting() */
+	public int lightingAt(int x, int y) {
+		final int cx = Math.floorDiv(x + viewX, lightScale), cy = Math.floorDiv(y + viewY, lightScale);
+		return base[Math.floorMod(cy, lightHeight)*lightWidth + Math.floorMod(cx, lightWidth)] |
+		       light[(cy - lightViewY)*lightWidth + (cx - lightViewX)];
 	}
 
 	public void applyTexture(final int[] pixels) {
@@ -110,8 +397,9 @@ public class Renderer {
 	}
 
 	private void applyTextureImpl(final int[] pixels, int iBegin, int iEnd) {
+		final int width = context.lastWidth;
 		for (int i = iBegin; i < iEnd; ++i) {
-			switch (pixels[i]) {
+			switch (lightingAt(i%width, i/width)) {
 				case Level.FLOOR_NONE:    pixels[i] = textureBlack.pixels[i];   break;
 				case Level.FLOOR_RED:     pixels[i] = textureRed.pixels[i];     break;
 				case Level.FLOOR_GREEN:   pixels[i] = textureGreen.pixels[i];   break;
@@ -126,6 +414,26 @@ public class Renderer {
 	}
 
 	public void applyTextureAlt(final int[] pixels) {
+		//which texture column, base layer column and light layer column each screen column reads from
+		final int width = context.lastWidth;
+		if (columnTexture.length != width) {
+			columnTexture = new int[width];
+			columnBase = new int[width];
+			columnLight = new int[width];
+		}
+		for (int dx = 0; dx < width; ++dx) {
+			final int cx = Math.floorDiv(dx + viewX, lightScale);
+			columnTexture[dx] = Math.floorMod(dx + viewX, width);
+			columnBase[dx] = Math.floorMod(cx, lightWidth);
+			columnLight[dx] = cx - lightViewX;
+		}
+
+		//for small frames, handing the work out to other threads costs more than it saves
+		if (!threadedTexture) {
+			applyTextureAltImpl(pixels, 0, context.lastHeight);
+			return;
+		}
+
 		float taskSize = context.height/renderingPool.poolSize;
 		for (int i = 0; i < renderingPool.poolSize; ++i) {
 			final int j = i;
@@ -140,34 +448,118 @@ public class Renderer {
 		final int height = context.lastHeight;
 		final int originX = viewX;
 		final int originY = viewY;
+		final int[] columnTexture = this.columnTexture, columnBase = this.columnBase, columnLight = this.columnLight;
 
 		for (int dy = yBegin; dy < yEnd; ++dy) {
-			for (int dx = 0; dx < width; ++dx) {
-				final int sx = Math.floorMod(dx + originX, width);
-				final int sy = Math.floorMod(dy + originY, height);
-
-				final int di = dy*width + dx;
-				final int si = sy*width + sx;
-
-				switch (pixels[di]) {
-					case Level.FLOOR_NONE:    pixels[di] = textureBlack.pixels[si];   break;
-					case Level.FLOOR_RED:     pixels[di] = textureRed.pixels[si];     break;
-					case Level.FLOOR_GREEN:   pixels[di] = textureGreen.pixels[si];   break;
-					case Level.FLOOR_BLUE:    pixels[di] = textureBlue.pixels[si];    break;
-					case Level.FLOOR_CYAN:    pixels[di] = textureCyan.pixels[si];    break;
-					case Level.FLOOR_MAGENTA: pixels[di] = textureMagenta.pixels[si]; break;
-					case Level.FLOOR_YELLOW:  pixels[di] = textureYellow.pixels[si];  break;
-					case Level.FLOOR_BLACK:   pixels[di] = textureGrey.pixels[si];    break;
-					case Level.FLOOR_WHITE:   pixels[di] = textureWhite.pixels[si];   break;
+			final int cy = Math.floorDiv(dy + originY, lightScale);
+			final int textureRow = Math.floorMod(dy + originY, height)*width;
+			final int baseRow = Math.floorMod(cy, lightHeight)*lightWidth;
+			final int lightRow = (cy - lightViewY)*lightWidth;
+
+			//a run of pixels lit the same color at a time, copied straight out of that color's texture
+			for (int dx = 0; dx < width;) {
+				final int color = base[baseRow + columnBase[dx]] | light[lightRow + columnLight[dx]];
+				int end = dx + 1;
+				while (end < width && (base[baseRow + columnBase[end]] | light[lightRow + columnLight[end]]) == color)
+					++end;
+
+				final PImage texture = textureFor(color);
+				if (texture != null) {
+					//the textures tile across the level the same way the screen would, so the run may wrap around once
+					final int from = columnTexture[dx], run = end - dx, first = PApplet.min(run, width - from);
+					System.arraycopy(texture.pixels, textureRow + from, pixels, dy*width + dx, first);
+					if (first < run)
+						System.arraycopy(texture.pixels, textureRow, pixels, dy*width + dx + first, run - first);
 				}
+				dx = end;
 			}
 		}
 	}
 
+	//the texture drawn for a lit level color, or null if it isn't one of the colors light can mix to
+	private PImage textureFor(int color) {
+		switch (color) {
+			case Level.FLOOR_NONE:    return textureBlack;
+			case Level.FLOOR_RED:     return textureRed;
+			case Level.FLOOR_GREEN:   return textureGreen;
+			case Level.FLOOR_BLUE:    return textureBlue;
+			case Level.FLOOR_CYAN:    return textureCyan;
+			case Level.FLOOR_MAGENTA: return textureMagenta;
+			case Level.FLOOR_YELLOW:  return textureYellow;
+			case Level.FLOOR_BLACK:   return textureGrey;
+			case Level.FLOOR_WHITE:   return textureWhite;
+			default:                  return null;
+		}
+	}
+
+	/** @return the number of threads the lighting and texture passes are split across */
+	public int renderingThreads() {
+		return renderingPool.poolSize;
+	}
+
+	/**
+	 * Draws the whole level scaled down to fit the screen, in place of the lit view, from the level's mipmap (see
+	 * LevelMipmap), so it costs about as much as a screenful of pixels however big the level is. Call
+	 * renderMapEntities() to draw the entities over it once the pixels have been updated.
+	 */
+	public void renderMap(Level level, int[] pixels) {
+		final int width = context.lastWidth, height = context.lastHeight;
+		mapScale = Math.min((double)PApplet.max(1, width  - 2*MAP_MARGIN)/level.LEVEL_WIDTH,
+		                    (double)PApplet.max(1, height - 2*MAP_MARGIN)/level.LEVEL_HEIGHT);
+		final int w = PApplet.max(1, (int)(level.LEVEL_WIDTH*mapScale)), h = PApplet.max(1, (int)(level.LEVEL_HEIGHT*mapScale));
+		mapX = (width - w)/2;
+		mapY = (height - h)/2;
+
+		Arrays.fill(pixels, 0, width*height, Level.FLOOR_BLACK);
+		level.mipmap.draw(pixels, width, mapX, mapY, w, h);
+	}
+
+	/** Draws every entity as a dot on the map drawn by renderMap(), and outlines the part of the level the normal view shows */
+	public void renderMapEntities(Level level) {
+		context.pushStyle();
+		context.noStroke();
+		for (Enemy e : level.enemies)
+			renderMarker(e);
+		renderMarker(level.objective);
+		renderMarker(level.player);
+
+		context.noFill();
+		context.stroke(Level.FLOOR_WHITE);
+		context.rect((float)(mapX + (level.player.renderX() - context.lastWidth /2)*mapScale),
+		             (float)(mapY + (level.player.renderY() - context.lastHeight/2)*mapScale),
+		             (float)(context.lastWidth*mapScale), (float)(context.lastHeight*mapScale));
+		context.popStyle();
+	}
+
+	private void renderMarker(Entity e) {
+		context.fill(e.color());
+		context.rect((float)(mapX + e.renderX()*mapScale) - 1, (float)(mapY + e.renderY()*mapScale) - 1, 3, 3);
+	}
+
 	public void renderEntities(Level level) {
 		level.objective.render();
 		level.player.render();
 		for (Enemy e : level.enemies)
 			e.render();
 	}
+
+	/**
+	 * The last trace of one light. A light is only traced again when the cell it's in (or the way its cone faces) changes, when its ray step or the
+	 * render scale changes, or (if it hasn't moved) when the view scrolls enough to change which part of it is on screen.
+	 * Lights far from the player that have moved wait their turn instead (see calculateLighting()), and are drawn from
+	 * their previous trace in the meantime.
+	 */
+	private static class CachedLight {
+		final Enemy enemy;
+		final LightGrid grid = new LightGrid();
+		int x, y, step; //cell the light was traced from, and the ray step it was traced with (0 for a visibility polygon)
+		float facing; //direction its cone faced when it was traced
+		int stale; //frames the light has waited since it moved
+		boolean edited; //whether the level has been edited within reach of the light since it was traced
+		int[] pending; //what to trace once it's this light's turn: { x, y, on-screen bounding box x1, y1, x2, y2, light radius, ray step }
+
+		CachedLight(Enemy enemy) {
+			this.enemy = enemy;
+		}
+	}
 }
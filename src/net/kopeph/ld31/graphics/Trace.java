@@ -5,6 +5,7 @@ import java.util.ArrayDeque;
 import java.util.Deque;
 
 import net.kopeph.ld31.spi.PointPredicate;
+import net.kopeph.ld31.spi.RegionPredicate;
 
 /**
  * @author alexg
@@ -72,6 +73,44 @@ public class Trace {
 		}
 	}
 
+	/**
+	 * A version of line() that can pass over whole rectangles of points at once. Before each point, skip is asked for
+	 * a rectangle around it, and if it gives one, op isn't called for any of the points in it, and tracing carries on
+	 * from the first point past it. Otherwise the points are the same ones line() would visit, since the n-th point
+	 * along the line can be worked out directly: the major axis moves every step, and the minor axis has moved
+	 * floor((2*n*minor + major - 1)/(2*major)) times.
+	 * @return true if the end of the line is reached (or skipped over), false if it is stopped partway
+	 */
+	public static boolean march(int x1, int y1, int x2, int y2, RegionPredicate skip, PointPredicate op) {
+		if (x1 == x2 && y1 == y2) return op.on(x1, y1);
+
+		final int dx = Math.abs(x2-x1), dy = Math.abs(y2-y1);
+		final int sx = x1 < x2? 1 : -1;
+		final int sy = y1 < y2? 1 : -1;
+		final boolean xMajor = dx >= dy;
+		final long major = xMajor? dx : dy, minor = xMajor? dy : dx;
+		final int[] bounds = new int[4];
+
+		for (long n = 0; n <= major;) {
+			final long m = (2*n*minor + major - 1)/(2*major);
+			final int x = x1 + sx*(int)(xMajor? n : m);
+			final int y = y1 + sy*(int)(xMajor? m : n);
+
+			if (skip.around(x, y, bounds)) {
+				//the last step still inside the rectangle along each axis, noting that steps along the minor axis are spread out
+				final long toX = sx > 0? bounds[2] - x1 : x1 - bounds[0];
+				final long toY = sy > 0? bounds[3] - y1 : y1 - bounds[1];
+				final long toMajor = xMajor? toX : toY, toMinor = xMajor? toY : toX;
+				final long last = minor == 0? toMajor : Math.min(toMajor, (2*major*(toMinor + 1) - major + 2*minor)/(2*minor) - 1);
+				n = last + 1;
+			} else {
+				if (!op.on(x, y)) return false;
+				++n;
+			}
+		}
+		return true;
+	}
+
 	/** Source: http://en.wikipedia.org/wiki/Midpoint_circle_algorithm#Example */
 	public static void circle(int x0, int y0, int radius, PointPredicate op) {
 		int x = radius;
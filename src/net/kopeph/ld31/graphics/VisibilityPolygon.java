@@ -0,0 +1,185 @@
+package net.kopeph.ld31.graphics;
+
+import java.util.Arrays;
+
+import net.kopeph.ld31.nav.WallSegments;
+
+/**
+ * Lighting from exact visibility polygons, as an alternative to the ray fan in Enemy.rayTrace() (see Renderer.polygonLighting).
+ *
+ * Instead of tracing a ray to every cell around the edge of a light, a ray is cast toward each end of every wall
+ * segment near it (and just to either side, to see past corners), the points those rays hit are joined up into
+ * the polygon the light can see, and that polygon is filled in a span at a time. The work depends on how many wall
+ * segments are around the light rather than on its radius, so big lights in open rooms come out much cheaper.
+ *
+ * The polygon is worked out in pixels, with the light at the center of its pixel, and a cell is lit if its center
+ * lies inside it. It's the true shape of what the light can see, so it doesn't match the fan cell for cell.
+ */
+public final class VisibilityPolygon {
+	private static final double EPSILON = 1e-5; //angle (in radians) either side of a corner to cast the rays that see past it
+
+	private VisibilityPolygon() {
+		throw new AssertionError("No Instantiation of: " + getClass().getName()); //$NON-NLS-1$
+	}
+
+	/**
+	 * Lights up every cell of the given grid that a light can see
+	 * @param lightX       the light's position, in pixels
+	 * @param viewDistance the light's radius, in cells
+	 * @param coneAngle    the width of the light's cone, in radians, or 2*PI or more for a full circle
+	 * @param facing       the direction the cone points in, in radians
+	 */
+	public static void light(LightGrid grid, WallSegments walls, int lightX, int lightY, int viewDistance, int color, float coneAngle, float facing) {
+		final int scale = grid.scale;
+		final double radius = viewDistance*scale; //in pixels, the polygon doesn't have to reach further than this
+		final double lx = lightX + 0.5, ly = lightY + 0.5;
+		final boolean cone = coneAngle < 2*Math.PI;
+
+		//gather the segments within reach that face the light, relative to it, as { x1, y1, x2, y2 }
+		final int[] near = walls.near((int)Math.floor(lx - radius), (int)Math.floor(ly - radius), (int)Math.ceil(lx + radius), (int)Math.ceil(ly + radius), new int[64]);
+		int count = 0;
+		while (near[count] >= 0) ++count;
+
+		final double[] segments = new double[4*(count + 4)];
+		int n = 0;
+		for (int k = 0; k < count; ++k) {
+			final int i = near[k];
+			final boolean horizontal = walls.y1[i] == walls.y2[i];
+			final double x1 = walls.x1[i] - lx, y1 = walls.y1[i] - ly, x2 = walls.x2[i] - lx, y2 = walls.y2[i] - ly;
+
+			//a segment with the light on its wall side is always behind another one, since the light is on the floor
+			if (horizontal? walls.floorAfter[i] != y1 < 0 : walls.floorAfter[i] != x1 < 0) continue;
+			if (distanceSq(x1, y1, x2, y2) >= radius*radius) continue;
+
+			segments[4*n    ] = x1;
+			segments[4*n + 1] = y1;
+			segments[4*n + 2] = x2;
+			segments[4*n + 3] = y2;
+			++n;
+		}
+
+		//the edges of the light's bounding square close the polygon where there aren't any walls
+		final double r = radius;
+		n = addSegment(segments, n, -r, -r,  r, -r);
+		n = addSegment(segments, n, -r,  r,  r,  r);
+		n = addSegment(segments, n, -r, -r, -r,  r);
+		n = addSegment(segments, n,  r, -r,  r,  r);
+
+		//cast rays at every segment end, and either side of it
+		double[] angles = new double[6*n + 2];
+		int rays = 0;
+		for (int k = 0; k < 2*n; ++k) {
+			final double angle = Math.atan2(segments[2*k + 1], segments[2*k]);
+			for (int d = -1; d <= 1; ++d) {
+				final double a = angle + d*EPSILON;
+				if (!cone || inCone(a, coneAngle, facing))
+					angles[rays++] = cone? facing + Math.IEEEremainder(a - facing, 2*Math.PI) : a;
+			}
+		}
+		if (cone) { //and along both edges of a cone
+			angles[rays++] = facing - coneAngle/2;
+			angles[rays++] = facing + coneAngle/2;
+		}
+		angles = Arrays.copyOf(angles, rays);
+		Arrays.sort(angles); //in order around the light, and for a cone, from one edge to the other
+
+		final double[] px = new double[rays], py = new double[rays];
+		for (int k = 0; k < rays; ++k) {
+			final double dx = Math.cos(angles[k]), dy = Math.sin(angles[k]);
+			final double t = nearestHit(segments, n, dx, dy);
+			px[k] = dx*t;
+			py[k] = dy*t;
+		}
+
+		//fill the polygon one triangle of the fan around the light at a time, closing it up unless it's a cone
+		final int xi = Math.floorDiv(lightX, scale) - grid.originX, yi = Math.floorDiv(lightY, scale) - grid.originY;
+		final int triangles = cone? rays - 1 : rays;
+		for (int k = 0; k < triangles; ++k)
+			fillTriangle(grid, px[k], py[k], px[(k + 1)%rays], py[(k + 1)%rays], lx, ly, xi, yi, viewDistance, color);
+	}
+
+	private static int addSegment(double[] segments, int n, double x1, double y1, double x2, double y2) {
+		segments[4*n    ] = x1;
+		segments[4*n + 1] = y1;
+		segments[4*n + 2] = x2;
+		segments[4*n + 3] = y2;
+		return n + 1;
+	}
+
+	private static boolean inCone(double angle, float coneAngle, float facing) {
+		return Math.abs(Math.IEEEremainder(angle - facing, 2*Math.PI)) <= coneAngle/2;
+	}
+
+	//squared distance from the light (at the origin) to the nearest point of an axis-aligned segment
+	private static double distanceSq(double x1, double y1, double x2, double y2) {
+		final double x = Math.max(x1, Math.min(0, x2)), y = Math.max(y1, Math.min(0, y2));
+		return x*x + y*y;
+	}
+
+	//distance along the ray from the light in direction (dx, dy) to the first segment it hits
+	private static double nearestHit(double[] segments, int n, double dx, double dy) {
+		double nearest = Double.MAX_VALUE;
+		for (int i = 0; i < n; ++i) {
+			final double x1 = segments[4*i], y1 = segments[4*i + 1], x2 = segments[4*i + 2], y2 = segments[4*i + 3];
+			if (y1 == y2) { //horizontal
+				if (dy == 0) continue;
+				final double t = y1/dy, x = t*dx;
+				if (t > 0 && t < nearest && x >= x1 && x <= x2) nearest = t;
+			} else { //vertical
+				if (dx == 0) continue;
+				final double t = x1/dx, y = t*dy;
+				if (t > 0 && t < nearest && y >= y1 && y <= y2) nearest = t;
+			}
+		}
+		return nearest;
+	}
+
+	//lights the cells whose centers lie in the triangle between the light and two points (relative to the light, in pixels)
+	private static void fillTriangle(LightGrid grid, double ax, double ay, double bx, double by, double lx, double ly,
+	                                 int xi, int yi, int viewDistance, int color) {
+		final int scale = grid.scale, width = grid.width;
+		final int[] cells = grid.cells;
+		final int vdsq = viewDistance*viewDistance;
+		final double[] span = new double[2]; //{ from, to } along the current row, in pixels relative to the light
+
+		//rows of cells whose centers lie between the triangle's top and bottom
+		final double top = Math.min(0, Math.min(ay, by)) + ly, bottom = Math.max(0, Math.max(ay, by)) + ly;
+		final int y1 = Math.max((int)Math.ceil (top   /scale - 0.5) - grid.originY, 0);
+		final int y2 = Math.min((int)Math.floor(bottom/scale - 0.5) - grid.originY, grid.height - 1);
+
+		for (int y = y1; y <= y2; ++y) {
+			final double cy = (y + grid.originY + 0.5)*scale - ly;
+
+			//where the row crosses the triangle's edges
+			span[0] = Double.MAX_VALUE;
+			span[1] = -Double.MAX_VALUE;
+			cross(span, 0, 0, ax, ay, cy);
+			cross(span, 0, 0, bx, by, cy);
+			cross(span, ax, ay, bx, by, cy);
+			if (span[0] > span[1]) continue;
+
+			//restrict light to a circle, the same one the fan uses
+			final int dy = y - yi;
+			if (dy*dy >= vdsq) continue;
+			final int halfWidth = (int)Math.sqrt(vdsq - 1 - dy*dy);
+
+			final int x1 = Math.max(Math.max((int)Math.ceil ((span[0] + lx)/scale - 0.5) - grid.originX, xi - halfWidth), 0);
+			final int x2 = Math.min(Math.min((int)Math.floor((span[1] + lx)/scale - 0.5) - grid.originX, xi + halfWidth), width - 1);
+			for (int x = x1; x <= x2; ++x)
+				cells[y*width + x] |= color;
+		}
+	}
+
+	//widens span to take in where an edge crosses the row at y, if it does
+	private static void cross(double[] span, double x1, double y1, double x2, double y2, double y) {
+		if (y1 == y2) {
+			if (y1 != y) return;
+			span[0] = Math.min(span[0], Math.min(x1, x2));
+			span[1] = Math.max(span[1], Math.max(x1, x2));
+		} else if (y1 <= y && y <= y2 || y2 <= y && y <= y1) {
+			final double x = x1 + (x2 - x1)*(y - y1)/(y2 - y1);
+			span[0] = Math.min(span[0], x);
+			span[1] = Math.max(span[1], x);
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package net.kopeph.ld31.menu;
+
+import processing.core.PImage;
+
+/** A picture of the last level played of one kind (see LD31.thumbnail()), once there's been one, fitted to its bounds */
+public class Thumbnail extends MenuWidget {
+	private final String levelPath; //null for free play levels
+	private final int levelWidth, levelHeight; //only meaningful for free play levels
+
+	/** xPos and yPos give its center, relative to the center of the screen, the same as a MenuButton's */
+	public Thumbnail(String levelPath, int levelWidth, int levelHeight, float xPos, float yPos, float width, float height) {
+		super(0, 0, width, height);
+		this.xPos += xPos + (context.width - width)/2;
+		this.yPos += yPos + (context.height - height)/2;
+		this.levelPath = levelPath;
+		this.levelWidth = levelWidth;
+		this.levelHeight = levelHeight;
+	}
+
+	@Override
+	public void render() {
+		updateBounds();
+
+		final PImage image = context.thumbnail(levelPath, levelWidth, levelHeight);
+		if (image == null) return;
+
+		final float scale = Math.min(width/image.width, height/image.height);
+		final float w = image.width*scale, h = image.height*scale;
+		context.image(image, (int)(xPos + (width - w)/2), (int)(yPos + (height - h)/2), (int)w, (int)h);
+	}
+}
@@ -1,15 +1,26 @@
 package net.kopeph.ld31.menu.instances;
 
 import net.kopeph.ld31.LD31;
+import net.kopeph.ld31.LevelInfo;
 import net.kopeph.ld31.menu.Menu;
 import net.kopeph.ld31.menu.MenuButton;
 import net.kopeph.ld31.menu.TextBox;
+import net.kopeph.ld31.menu.Thumbnail;
 
 public final class CampaignMenu extends Menu {
 	public CampaignMenu() {
 		add(new TextBox(context.renderer.font, "Campaign Mode", 0, -175));
-		add(new MenuButton(context.renderer.font, "Play Test Level", 0, -100, 400, 50, (down) -> { context.setGameState(LD31.ST_RESET_HARD); context.setLevelPath(LD31.TEST_LEVEL); }));
-		add(new MenuButton(context.renderer.font, "Back"           , 0,  -40, 400, 50, (down) -> { context.setGameState(LD31.ST_MENU); }));
+
+		//one button per level, labelled with what was read about it at startup (see LevelInfo), and a picture of it
+		int y = -100;
+		for (LevelInfo info : context.campaignLevels()) {
+			final String label = info.width > 0? String.format("%s (%dx%d, %d enemies)", info.name(), info.width, info.height, info.enemies) : info.name() + " (unreadable)";
+			add(new MenuButton(context.renderer.font, label, 0, y, 400, 50, (down) -> { context.setGameState(LD31.ST_RESET_HARD); context.setLevelPath(info.path); }));
+			add(new Thumbnail(info.path, 0, 0, 250, y, 80, 50));
+			y += 60;
+		}
+
+		add(new MenuButton(context.renderer.font, "Back", 0, y, 400, 50, (down) -> { context.setGameState(LD31.ST_MENU); }));
 		add(new TextBox(context.renderer.font, "This game mode is still in early development!", 0,  150));
 	}
 }
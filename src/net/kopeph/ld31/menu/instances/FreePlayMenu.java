@@ -4,6 +4,7 @@ import net.kopeph.ld31.LD31;
 import net.kopeph.ld31.menu.Menu;
 import net.kopeph.ld31.menu.MenuButton;
 import net.kopeph.ld31.menu.TextBox;
+import net.kopeph.ld31.menu.Thumbnail;
 
 public final class FreePlayMenu extends Menu {
 	public FreePlayMenu() {
@@ -14,5 +15,12 @@ public final class FreePlayMenu extends Menu {
 		add(new MenuButton(context.renderer.font, "Large (1920x1080)", 0,   20, 400, 40, (down) -> { context.setLevelSize(1920, 1080); context.setGameState(LD31.ST_RESET_HARD); context.setLevelPath(null); }));
 		add(new MenuButton(context.renderer.font, "Huge (2560x1440)" , 0,   70, 400, 40, (down) -> { context.setLevelSize(2560, 1440); context.setGameState(LD31.ST_RESET_HARD); context.setLevelPath(null); }));
 		add(new MenuButton(context.renderer.font, "Back"             , 0,  150, 400, 50, (down) -> { context.setGameState(LD31.ST_MENU); }));
+
+		//a picture of the last level played at each size, beside its button
+		add(new Thumbnail(null, 480, 340  , 250, -130, 80, 40));
+		add(new Thumbnail(null, 800, 600  , 250,  -80, 80, 40));
+		add(new Thumbnail(null, 1280, 720 , 250,  -30, 80, 40));
+		add(new Thumbnail(null, 1920, 1080, 250,   20, 80, 40));
+		add(new Thumbnail(null, 2560, 1440, 250,   70, 80, 40));
 	}
 }
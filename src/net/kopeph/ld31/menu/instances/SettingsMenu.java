@@ -5,6 +5,7 @@ import java.util.List;
 import net.kopeph.ld31.Audio;
 import net.kopeph.ld31.InputHandler;
 import net.kopeph.ld31.LD31;
+import net.kopeph.ld31.graphics.Renderer;
 import net.kopeph.ld31.menu.Menu;
 import net.kopeph.ld31.menu.MenuButton;
 import net.kopeph.ld31.menu.Slider;
@@ -13,6 +14,11 @@ import processing.core.PApplet;
 
 public final class SettingsMenu extends Menu {
 	private static final int BINDINGS_YPOS = -150;
+	//every control but escape, which is also what unbinds a key while rebinding
+	private static final int[] CONTROLS = {
+		InputHandler.CTL_UP, InputHandler.CTL_LEFT, InputHandler.CTL_DOWN, InputHandler.CTL_RIGHT,
+		InputHandler.CTL_RESET, InputHandler.CTL_PAUSE, InputHandler.CTL_RETRY, InputHandler.CTL_MAP,
+	};
 
 	public SettingsMenu(int width, int height, InputHandler input, Audio audio) {
 		super(width, height);
@@ -29,13 +35,13 @@ public final class SettingsMenu extends Menu {
 		for (int col = 1; col < MENU_COLS; ++col) {
 			add(new TextBox(context.renderer.font, String.valueOf(col), -30*MENU_COLS + 60*col, BINDINGS_YPOS + 25));
 		}
-		for (int row = 0; row < InputHandler.CTL_ESCAPE; ++row) {
+		for (int row = 0; row < CONTROLS.length; ++row) {
 			//setup left label column
-			add(new TextBox(context.renderer.font, InputHandler.getControlString(row), -30*MENU_COLS, BINDINGS_YPOS + 50 + 30*row));
+			add(new TextBox(context.renderer.font, InputHandler.getControlString(CONTROLS[row]), -30*MENU_COLS, BINDINGS_YPOS + 50 + 30*row));
 
 			//setup each row of buttons
-			final int r = row;
-			List<Integer> bindings = input.getBoundKeyIdsFor(row);
+			final int r = CONTROLS[row];
+			List<Integer> bindings = input.getBoundKeyIdsFor(r);
 			for (int col = 1; col < MENU_COLS; ++col) {
 				final int keyId = (col <= bindings.size()? bindings.get(col - 1) : InputHandler.K_UNBOUND);
 				final MenuButton b = new MenuButton(context.renderer.font, InputHandler.getKeyIdString(keyId),
@@ -46,7 +52,20 @@ public final class SettingsMenu extends Menu {
 			}
 		}
 
-		add(new MenuButton(context.renderer.font, "Revert to Defaults", 0, 100, 400, 50, (down) -> { input.resetKeyIdBindings(); context.setupSettingsMenu(); }));
-		add(new MenuButton(context.renderer.font, "Back", 0, 200, 400, 50, (down) -> { context.setGameState(LD31.ST_MENU); }));
+		//setup render scale button, which cycles through the available scales
+		add(new TextBox(context.renderer.font, "Render Scale", -180, 145));
+		final MenuButton scale = new MenuButton(context.renderer.font, getRenderScaleString(context.renderer.renderScale), 40, 145, 360, 20, (down) -> { /* dummy argument (gets replaced immediately) */ });
+		scale.replaceInteraction((down) -> {
+			context.renderer.renderScale = context.renderer.renderScale%Renderer.MAX_RENDER_SCALE + 1;
+			scale.text = getRenderScaleString(context.renderer.renderScale);
+		});
+		add(scale);
+
+		add(new MenuButton(context.renderer.font, "Revert to Defaults", 0, 180, 400, 30, (down) -> { input.resetKeyIdBindings(); context.renderer.renderScale = 1; context.setupSettingsMenu(); }));
+		add(new MenuButton(context.renderer.font, "Back", 0, 215, 400, 30, (down) -> { context.setGameState(LD31.ST_MENU); }));
+	}
+
+	private static String getRenderScaleString(int scale) {
+		return scale == 1? "Full Resolution" : "1/" + scale + " Resolution";
 	}
 }
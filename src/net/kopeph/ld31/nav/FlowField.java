@@ -0,0 +1,151 @@
+package net.kopeph.ld31.nav;
+
+import java.util.Arrays;
+
+import net.kopeph.ld31.Level;
+
+/**
+ * A breadth-first distance field rooted at a single tile (normally the player's), shared by every
+ * entity that wants to walk toward that tile. Only tiles within RADIUS of the root are explored, so
+ * a rebuild costs O(area of the window) no matter how many entities read from the field.
+ *
+ * Moving the root rebuilds the whole window, since nearly every distance in it changes when the root
+ * moves even one tile. To keep that to a bounded number of rebuilds, follow() lets the root trail a
+ * moving target by a few tiles instead of moving it on every step.
+ */
+public class FlowField {
+	public static final int DEFAULT_RADIUS = 192;
+
+	private static final int UNREACHED = Integer.MAX_VALUE;
+
+	//neighbor offsets, cardinal directions first so that they win ties against diagonals
+	private static final int[] NX = { 1, 0, -1, 0, 1, -1, -1, 1 };
+	private static final int[] NY = { 0, 1, 0, -1, 1, 1, -1, -1 };
+
+	private final Level level;
+	public final int radius;
+	private final int side; //width and height of the window covered by the field
+
+	private final int[] dist;
+	private final int[] stamp; //generation each window tile was last reached in, so rebuilds never have to clear dist[]
+	private final int[] queue;
+	private int generation;
+
+	private int rootX = Integer.MIN_VALUE, rootY = Integer.MIN_VALUE;
+	private int originX, originY; //level coordinates of the top-left corner of the window
+	private boolean stale = true;
+
+	public FlowField(Level level) {
+		this(level, DEFAULT_RADIUS);
+	}
+
+	public FlowField(Level level, int radius) {
+		this.level = level;
+		this.radius = radius;
+		side = radius*2 + 1;
+		dist = new int[side*side];
+		stamp = new int[side*side];
+		queue = new int[side*side];
+	}
+
+	/**
+	 * Moves the root of the field. This is cheap to call every tick: nothing is recalculated until
+	 * the root actually changes tiles AND someone asks the field for a direction.
+	 */
+	public void reroot(int x, int y) {
+		if (x == rootX && y == rootY) return;
+		rootX = x;
+		rootY = y;
+		stale = true;
+	}
+
+	/**
+	 * Moves the root to (x, y) once it's at least slack tiles from where the root is along either axis, or whenever the field
+	 * is due to be rebuilt anyway. Something that moves at most a tile per tick then causes at most one rebuild every slack ticks.
+	 */
+	public void follow(int x, int y, int slack) {
+		if (stale || Math.max(Math.abs(x - rootX), Math.abs(y - rootY)) >= slack)
+			reroot(x, y);
+	}
+
+	/** Marks the field to be rebuilt if the walkable tiles from (x1, y1) to (x2, y2) (inclusive) that were edited are inside its window */
+	public void walkableChanged(int x1, int y1, int x2, int y2) {
+		if (x2 >= originX && x1 < originX + side && y2 >= originY && y1 < originY + side)
+			stale = true;
+	}
+
+	/**
+	 * @return the angle (in radians) an entity at (x, y) should move in to follow the shortest path to the root,
+	 *         or NaN if (x, y) is at the root, outside the field, or cut off from the root
+	 */
+	public double direction(int x, int y) {
+		if (stale) rebuild();
+
+		final int d = distance(x, y);
+		if (d == UNREACHED || d == 0) return Double.NaN;
+
+		int best = d, bestX = 0, bestY = 0;
+		for (int n = 0; n < 8; ++n) {
+			final int nd = distance(x + NX[n], y + NY[n]);
+			if (nd < best) {
+				best = nd;
+				bestX = NX[n];
+				bestY = NY[n];
+			}
+		}
+
+		if (best == d) return Double.NaN; //shouldn't happen on a consistent field, but don't send anyone in circles
+		return Math.atan2(bestY, bestX);
+	}
+
+	/** @return the number of steps from (x, y) to the root, or Integer.MAX_VALUE if it can't be reached within the field */
+	public int distance(int x, int y) {
+		if (stale) rebuild();
+
+		final int wx = x - originX, wy = y - originY;
+		if (wx < 0 || wy < 0 || wx >= side || wy >= side) return UNREACHED;
+
+		final int i = wy*side + wx;
+		return stamp[i] == generation? dist[i] : UNREACHED;
+	}
+
+	private void rebuild() {
+		stale = false;
+		originX = rootX - radius;
+		originY = rootY - radius;
+
+		if (++generation == 0) { //wrapped around after ~4 billion rebuilds, stale stamps could alias
+			Arrays.fill(stamp, 0);
+			generation = 1;
+		}
+
+		if (!level.walkable(rootX, rootY)) return; //nothing can reach a root that's inside a wall
+
+		int head = 0, tail = 0;
+		final int rootIndex = radius*side + radius;
+		dist[rootIndex] = 0;
+		stamp[rootIndex] = generation;
+		queue[tail++] = rootIndex;
+
+		while (head < tail) {
+			final int i = queue[head++];
+			final int wx = i%side, wy = i/side;
+			final int nd = dist[i] + 1;
+
+			for (int n = 0; n < 8; ++n) {
+				final int nx = wx + NX[n], ny = wy + NY[n];
+				if (nx < 0 || ny < 0 || nx >= side || ny >= side) continue;
+
+				final int ni = ny*side + nx;
+				if (stamp[ni] == generation) continue;
+				if (!level.walkable(nx + originX, ny + originY)) continue;
+				//don't let diagonal steps cut corners, since entities can't squeeze through them either
+				if (n >= 4 && (!level.walkable(nx + originX, wy + originY) || !level.walkable(wx + originX, ny + originY))) continue;
+
+				dist[ni] = nd;
+				stamp[ni] = generation;
+				queue[tail++] = ni;
+			}
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package net.kopeph.ld31.nav;
+
+import java.util.List;
+
+import net.kopeph.ld31.Level;
+import net.kopeph.ld31.entity.Entity;
+import net.kopeph.ld31.util.BitGrid;
+
+/**
+ * Line of sight queries against a level's walls.
+ *
+ * Lines are walked with the same Bresenham stepping as Trace.line(), so the same pixels are tested, but instead
+ * of looking up each pixel in Level.tiles, every straight run of pixels is tested against a packed wall bitset a
+ * word (64 tiles) at a time. Horizontal runs use a row-major bitset and vertical runs use a transposed copy.
+ */
+public class LineOfSight {
+	private final BitGrid rows;    //the level's own wall bitset
+	private final BitGrid columns; //the same walls transposed, so that vertical runs are contiguous too
+
+	private boolean[] results = new boolean[0];
+
+	public LineOfSight(Level level) {
+		rows = level.walls;
+		columns = new BitGrid(level.LEVEL_HEIGHT, level.LEVEL_WIDTH);
+
+		for (int y = 0; y < level.LEVEL_HEIGHT; ++y)
+			for (int x = 0; x < level.LEVEL_WIDTH; ++x)
+				if (rows.get(x, y))
+					columns.set(y, x, true);
+	}
+
+	/** A copy of another level's line of sight, for a copy of that level with the given walls (see Level.copy()) */
+	public LineOfSight(BitGrid walls, LineOfSight original) {
+		rows = walls;
+		columns = original.columns.copy();
+	}
+
+	/** Brings the transposed walls up to date after the level's walls from (x1, y1) to (x2, y2) (inclusive) have been edited */
+	public void wallsChanged(int x1, int y1, int x2, int y2) {
+		for (int x = x1; x <= x2; ++x)
+			for (int y = y1; y <= y2; ++y)
+				columns.set(y, x, rows.get(x, y));
+	}
+
+	/**
+	 * Answers visibility of one point from many entities at once.
+	 * @return an array where element i is true if from.get(i) has line of sight to (x, y).
+	 *         The array is reused by the next call, and may be longer than from.size().
+	 */
+	public boolean[] visibleFrom(List<? extends Entity> from, int x, int y) {
+		if (results.length < from.size())
+			results = new boolean[from.size()];
+
+		for (int i = 0; i < from.size(); ++i)
+			results[i] = clear(from.get(i).x(), from.get(i).y(), x, y);
+
+		return results;
+	}
+
+	/** @return true if any tile in row y from x1 to x2 (inclusive, x1 <= x2) is a wall or outside the level */
+	public boolean blockedRow(int y, int x1, int x2) {
+		return y < 0 || y >= rows.height || x1 < 0 || x2 >= rows.width || rows.anyInRow(y, x1, x2);
+	}
+
+	/** @return true if any tile in column x from y1 to y2 (inclusive, y1 <= y2) is a wall or outside the level */
+	public boolean blockedColumn(int x, int y1, int y2) {
+		return x < 0 || x >= columns.height || y1 < 0 || y2 >= columns.width || columns.anyInRow(x, y1, y2);
+	}
+
+	/** @return true if there are no walls on the line between the two points (endpoints included) */
+	public boolean clear(int x1, int y1, int x2, int y2) {
+		final int dx =  Math.abs(x2 - x1);
+		final int dy = -Math.abs(y2 - y1);
+		final int sx = x1 < x2? 1 : -1;
+		final int sy = y1 < y2? 1 : -1;
+		final boolean xMajor = dx >= -dy; //x-major lines are made of horizontal runs, y-major lines of vertical runs
+
+		int err = dx + dy;
+		int runStart = xMajor? x1 : y1;
+
+		while (x1 != x2 || y1 != y2) {
+			final int e2 = 2*err;
+			final boolean stepX = e2 > dy, stepY = e2 < dx;
+			if (stepX) err += dy;
+			if (stepY) err += dx;
+
+			//the minor coordinate is about to change, so the current run ends here
+			if (xMajor? stepY : stepX) {
+				if (xMajor? rows.anyInRow(y1, runStart, x1) : columns.anyInRow(x1, runStart, y1))
+					return false;
+				runStart = xMajor? x1 + (stepX? sx : 0) : y1 + (stepY? sy : 0);
+			}
+
+			if (stepX) x1 += sx;
+			if (stepY) y1 += sy;
+		}
+
+		return !(xMajor? rows.anyInRow(y1, runStart, x1) : columns.anyInRow(x1, runStart, y1));
+	}
+}
@@ -0,0 +1,522 @@
+package net.kopeph.ld31.nav;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import net.kopeph.ld31.Level;
+import net.kopeph.ld31.util.Vector2;
+
+/**
+ * Hierarchical (HPA*) navigation graph over a level's walkable tiles.
+ *
+ * The level is cut into square clusters. Every stretch of walkable tiles shared by two neighboring clusters
+ * becomes an entrance with one abstract node on each side, and the nodes within each cluster are connected by
+ * edges whose costs come from a search confined to that cluster. Long paths are then found by searching the
+ * small abstract graph and refined into tile paths only for the clusters actually used, with the refined
+ * intra-cluster segments cached for reuse. When the level is edited, only the borders and clusters around the
+ * edit are redone, and not until the next path is asked for (see walkableChanged()).
+ *
+ * Path lengths are measured in 8-connected steps, so Chebyshev distance is an admissible heuristic.
+ */
+public class NavGraph {
+	public static final int CLUSTER_SIZE = 64;
+	private static final int LONG_ENTRANCE = 16; //entrances at least this wide get a node at each end instead of one in the middle
+
+	//neighbor offsets, cardinal directions first (diagonals are only allowed if both adjacent cardinals are open)
+	private static final int[] NX = { 1, 0, -1, 0, 1, -1, -1, 1 };
+	private static final int[] NY = { 0, 1, 0, -1, 1, 1, -1, -1 };
+
+	private static class Node {
+		final int id, x, y, cluster;
+		final List<Edge> edges = new ArrayList<>();
+		int transitions; //entrances the node is on one side of, it's removed with the last of them
+
+		Node(int id, int x, int y, int cluster) {
+			this.id = id;
+			this.x = x;
+			this.y = y;
+			this.cluster = cluster;
+		}
+	}
+
+	private static class Edge {
+		final Node to;
+		final int cost;
+
+		Edge(Node to, int cost) {
+			this.to = to;
+			this.cost = cost;
+		}
+	}
+
+	private final Level level;
+	private final int clustersX, clustersY;
+
+	private final List<Node> nodes = new ArrayList<>(); //by id, null where a node was removed and its id not yet reused
+	private final List<Integer> freeIds = new ArrayList<>();
+	private final List<List<Node>> clusterNodes = new ArrayList<>();
+	private final List<List<Node>> borders = new ArrayList<>(); //node pairs of the entrances on the right (2*cluster) and bottom (2*cluster + 1) of each cluster
+	private final Map<Integer, Node> nodeAt = new HashMap<>(); //tile index -> node, so corner entrances don't get duplicate nodes
+	private final Map<Long, int[]> pathCache = new HashMap<>(); //refined intra-cluster paths, keyed by node id pairs
+
+	//left to be redone by refresh() since the level was last edited
+	private final List<Integer> dirtyClusters = new ArrayList<>(); //clusters to reconnect
+	private final List<Integer> dirtyBorders = new ArrayList<>(); //borders to find the entrances of again, as indices into borders
+
+	//scratch space for searches confined to a single cluster
+	//(laid out with a border of closed tiles around the cluster, so the search never has to check it's still inside it)
+	private static final int LOCAL_STRIDE = CLUSTER_SIZE + 2;
+	private static final int[] LOCAL_STEP = new int[8]; //index offset of each of the neighbours in NX and NY
+	static {
+		for (int n = 0; n < 8; ++n)
+			LOCAL_STEP[n] = NY[n]*LOCAL_STRIDE + NX[n];
+	}
+	private final int[] localDist = new int[LOCAL_STRIDE*LOCAL_STRIDE];
+	private final int[] localStamp = new int[LOCAL_STRIDE*LOCAL_STRIDE];
+	private final int[] localQueue = new int[CLUSTER_SIZE*CLUSTER_SIZE];
+	private final boolean[] localOpen = new boolean[LOCAL_STRIDE*LOCAL_STRIDE]; //walkable tiles of the cluster being searched
+	private int localGeneration;
+	private int localX0, localY0, localW, localH; //bounds of the cluster most recently searched
+
+	public NavGraph(Level level) {
+		this.level = level;
+		clustersX = (level.LEVEL_WIDTH + CLUSTER_SIZE - 1)/CLUSTER_SIZE;
+		clustersY = (level.LEVEL_HEIGHT + CLUSTER_SIZE - 1)/CLUSTER_SIZE;
+
+		for (int i = clustersX*clustersY; i --> 0;) {
+			clusterNodes.add(new ArrayList<>());
+			borders.add(new ArrayList<>());
+			borders.add(new ArrayList<>());
+		}
+
+		//find entrances along every vertical and horizontal cluster border
+		for (int cy = 0; cy < clustersY; ++cy) {
+			for (int cx = 0; cx < clustersX; ++cx) {
+				if (cx + 1 < clustersX) scanBorder(cx, cy, false);
+				if (cy + 1 < clustersY) scanBorder(cx, cy, true);
+			}
+		}
+
+		//connect the nodes inside each cluster
+		for (int c = 0; c < clusterNodes.size(); ++c)
+			connectCluster(c);
+	}
+
+	/**
+	 * A copy of another level's graph, for a copy of that level (see Level.copy()). Nodes keep their ids and every list
+	 * keeps its order, so the copy finds exactly the same paths as the original would.
+	 */
+	public NavGraph(Level level, NavGraph original) {
+		this.level = level;
+		clustersX = original.clustersX;
+		clustersY = original.clustersY;
+
+		for (Node node : original.nodes)
+			nodes.add(node == null? null : copyOf(node));
+		for (Node node : original.nodes)
+			if (node != null)
+				for (Edge e : node.edges)
+					nodes.get(node.id).edges.add(new Edge(nodes.get(e.to.id), e.cost));
+
+		freeIds.addAll(original.freeIds);
+		for (List<Node> cluster : original.clusterNodes)
+			clusterNodes.add(copiesOf(cluster));
+		for (List<Node> border : original.borders)
+			borders.add(copiesOf(border));
+		for (Map.Entry<Integer, Node> entry : original.nodeAt.entrySet())
+			nodeAt.put(entry.getKey(), nodes.get(entry.getValue().id));
+		pathCache.putAll(original.pathCache); //refined paths are never changed once they're cached, so they can be shared
+
+		dirtyClusters.addAll(original.dirtyClusters);
+		dirtyBorders.addAll(original.dirtyBorders);
+	}
+
+	//helper functions for the copy constructor
+	private static Node copyOf(Node node) {
+		final Node copy = new Node(node.id, node.x, node.y, node.cluster);
+		copy.transitions = node.transitions;
+		return copy;
+	}
+
+	private List<Node> copiesOf(List<Node> original) {
+		final List<Node> copies = new ArrayList<>(original.size());
+		for (Node node : original)
+			copies.add(nodes.get(node.id));
+		return copies;
+	}
+
+	/** @return the number of abstract nodes in the graph */
+	public int size() {
+		refresh();
+		return nodes.size() - freeIds.size();
+	}
+
+	/**
+	 * Marks the graph to be brought up to date after the walkable tiles from (x1, y1) to (x2, y2) (inclusive) have been
+	 * edited. The entrances along borders running through those tiles are found again, and the clusters either side of
+	 * them or containing any of the tiles are reconnected, but only once a path is asked for, so a door that opens and
+	 * closes every few ticks costs nothing here until an enemy actually needs a route.
+	 */
+	public void walkableChanged(int x1, int y1, int x2, int y2) {
+		for (int cy = y1/CLUSTER_SIZE; cy <= y2/CLUSTER_SIZE; ++cy) {
+			for (int cx = x1/CLUSTER_SIZE; cx <= x2/CLUSTER_SIZE; ++cx) {
+				final int c = cy*clustersX + cx;
+				markCluster(c);
+
+				//the tiles either side of a border are on the last row or column of one cluster and the first of the next
+				final int right = (cx + 1)*CLUSTER_SIZE - 1, bottom = (cy + 1)*CLUSTER_SIZE - 1;
+				if (cx + 1 < clustersX && x2 >= right) markBorder(2*c);
+				if (cy + 1 < clustersY && y2 >= bottom) markBorder(2*c + 1);
+				if (cx > 0 && x1 == cx*CLUSTER_SIZE) markBorder(2*(c - 1));
+				if (cy > 0 && y1 == cy*CLUSTER_SIZE) markBorder(2*(c - clustersX) + 1);
+			}
+		}
+	}
+
+	private void markCluster(int c) {
+		if (!dirtyClusters.contains(c))
+			dirtyClusters.add(c);
+	}
+
+	//a border's entrances belong to the clusters either side of it, so they have to be reconnected too
+	private void markBorder(int b) {
+		if (dirtyBorders.contains(b)) return;
+		dirtyBorders.add(b);
+		markCluster(b/2);
+		markCluster(b%2 == 0? b/2 + 1 : b/2 + clustersX);
+	}
+
+	//redoes whatever walkableChanged() marked since the last time
+	private void refresh() {
+		if (dirtyClusters.isEmpty()) return;
+
+		//refined paths through the clusters are about to be wrong, and the ids of removed nodes reused
+		pathCache.keySet().removeIf(key -> dirtyClusters.contains(nodes.get((int)(key >>> 32)).cluster));
+
+		for (int b : dirtyBorders)
+			clearBorder(borders.get(b));
+		for (int b : dirtyBorders)
+			scanBorder(b/2%clustersX, b/2/clustersX, b%2 == 1);
+		for (int c : dirtyClusters)
+			connectCluster(c);
+
+		dirtyBorders.clear();
+		dirtyClusters.clear();
+	}
+
+	/**
+	 * Finds a path between two tiles.
+	 * @return waypoints (excluding the start, including the goal) such that every consecutive pair is joined by a
+	 *         straight 8-directional run of walkable tiles, or null if no path exists
+	 */
+	public List<Vector2> path(int sx, int sy, int gx, int gy) {
+		if (!level.walkable(sx, sy) || !level.walkable(gx, gy)) return null;
+		refresh();
+
+		final int startCluster = clusterOf(sx, sy), goalCluster = clusterOf(gx, gy);
+
+		//the cheap case: both ends are in the same cluster and connected within it
+		searchCluster(sx, sy, startCluster);
+		if (startCluster == goalCluster && localDistance(gx, gy) != Integer.MAX_VALUE)
+			return toWaypoints(tracePath(gx, gy));
+
+		//temporarily hook the start and goal into the abstract graph, tracing the way to each node the start reaches now,
+		//while the start's search is still at hand, so that only the start and goal clusters are searched per query
+		final int n = nodes.size(), START = n, GOAL = n + 1;
+		final List<Edge> startEdges = new ArrayList<>();
+		final Map<Integer, int[]> startPaths = new HashMap<>(); //node id -> tiles from the start to the node
+		for (Node b : clusterNodes.get(startCluster)) {
+			final int d = localDistance(b.x, b.y);
+			if (d != Integer.MAX_VALUE) {
+				startEdges.add(new Edge(b, d));
+				startPaths.put(b.id, tracePath(b.x, b.y));
+			}
+		}
+
+		final int[] goalCost = new int[n];
+		Arrays.fill(goalCost, Integer.MAX_VALUE);
+		searchCluster(gx, gy, goalCluster);
+		for (Node b : clusterNodes.get(goalCluster))
+			goalCost[b.id] = localDistance(b.x, b.y);
+
+		//A* over the abstract graph
+		final int[] g = new int[n + 2];
+		final int[] parent = new int[n + 2];
+		final boolean[] closed = new boolean[n + 2];
+		Arrays.fill(g, Integer.MAX_VALUE);
+		g[START] = 0;
+		parent[START] = -1;
+
+		//open set entries are { f, id }
+		final PriorityQueue<int[]> open = new PriorityQueue<>((a, b) -> Integer.compare(a[0], b[0]));
+		open.add(new int[] { heuristic(sx, sy, gx, gy), START });
+
+		while (!open.isEmpty()) {
+			final int u = open.poll()[1];
+			if (closed[u]) continue;
+			closed[u] = true;
+			if (u == GOAL) break;
+
+			final List<Edge> edges = u == START? startEdges : nodes.get(u).edges;
+			for (Edge e : edges) {
+				final int v = e.to.id, cost = g[u] + e.cost;
+				if (!closed[v] && cost < g[v]) {
+					g[v] = cost;
+					parent[v] = u;
+					open.add(new int[] { cost + heuristic(e.to.x, e.to.y, gx, gy), v });
+				}
+			}
+
+			if (u != START && goalCost[u] != Integer.MAX_VALUE && g[u] + goalCost[u] < g[GOAL]) {
+				g[GOAL] = g[u] + goalCost[u];
+				parent[GOAL] = u;
+				open.add(new int[] { g[GOAL], GOAL });
+			}
+		}
+
+		if (!closed[GOAL]) return null;
+
+		//walk back from the goal to collect the abstract path
+		final List<Integer> abstractPath = new ArrayList<>();
+		for (int u = parent[GOAL]; u != START; u = parent[u])
+			abstractPath.add(0, u);
+
+		//the last node's way to the goal comes from the goal's search (steps are the same both ways), before refine() searches
+		final Node last = nodes.get(abstractPath.get(abstractPath.size() - 1));
+		final int[] goalPath = tracePath(last.x, last.y);
+
+		//refine each abstract step into tiles
+		final List<Integer> tiles = new ArrayList<>();
+		tiles.add(sy*level.LEVEL_WIDTH + sx);
+		appendPath(tiles, startPaths.get(abstractPath.get(0)));
+		for (int i = 1; i < abstractPath.size(); ++i)
+			appendPath(tiles, refine(nodes.get(abstractPath.get(i - 1)), nodes.get(abstractPath.get(i))));
+		for (int i = goalPath.length - 1; i > 0; --i)
+			tiles.add(goalPath[i - 1]);
+
+		return toWaypoints(tiles);
+	}
+
+	//returns the tile path between two connected nodes, which are either in the same cluster or either side of an entrance
+	private int[] refine(Node a, Node b) {
+		if (a.cluster != b.cluster)
+			return new int[] { a.y*level.LEVEL_WIDTH + a.x, b.y*level.LEVEL_WIDTH + b.x };
+
+		final long key = (long)a.id << 32 | b.id;
+		int[] cached = pathCache.get(key);
+		if (cached == null) {
+			searchCluster(a.x, a.y, a.cluster);
+			cached = tracePath(b.x, b.y);
+			pathCache.put(key, cached);
+		}
+		return cached;
+	}
+
+	//helper function for path(), skips the first tile of each segment because it's the last tile of the previous one
+	private static void appendPath(List<Integer> tiles, int[] segment) {
+		for (int i = 1; i < segment.length; ++i)
+			tiles.add(segment[i]);
+	}
+
+	//collapses a tile path into the tiles where it changes direction
+	private List<Vector2> toWaypoints(List<Integer> tiles) {
+		final int w = level.LEVEL_WIDTH;
+		final List<Vector2> waypoints = new ArrayList<>();
+		for (int i = 1; i < tiles.size(); ++i) {
+			final int a = tiles.get(i - 1), b = tiles.get(i);
+			final boolean last = i == tiles.size() - 1;
+			if (last || tiles.get(i + 1) - b != b - a)
+				waypoints.add(new Vector2(b%w, b/w));
+		}
+		return waypoints;
+	}
+
+	private List<Vector2> toWaypoints(int[] tiles) {
+		final List<Integer> list = new ArrayList<>(tiles.length);
+		for (int t : tiles)
+			list.add(t);
+		return toWaypoints(list);
+	}
+
+	//finds the entrances along the right or bottom border of a cluster
+	private void scanBorder(int cx, int cy, boolean bottom) {
+		final List<Node> transitions = borders.get(2*(cy*clustersX + cx) + (bottom? 1 : 0));
+		if (bottom)
+			addEntrances(transitions, cx*CLUSTER_SIZE, (cy + 1)*CLUSTER_SIZE - 1, 1, 0, 0, 1, clusterRight(cx) - cx*CLUSTER_SIZE);
+		else
+			addEntrances(transitions, (cx + 1)*CLUSTER_SIZE - 1, cy*CLUSTER_SIZE, 0, 1, 1, 0, clusterBottom(cy) - cy*CLUSTER_SIZE);
+	}
+
+	//removes the entrances found by scanBorder(), along with any node left without one
+	private void clearBorder(List<Node> transitions) {
+		for (int i = 0; i < transitions.size(); i += 2) {
+			final Node a = transitions.get(i), b = transitions.get(i + 1);
+			a.edges.removeIf(e -> e.to == b);
+			b.edges.removeIf(e -> e.to == a);
+			if (--a.transitions == 0) removeNode(a);
+			if (--b.transitions == 0) removeNode(b);
+		}
+		transitions.clear();
+	}
+
+	//(re)computes the edges between the nodes inside a cluster, leaving the ones to other clusters alone
+	private void connectCluster(int c) {
+		final List<Node> cluster = clusterNodes.get(c);
+		for (Node a : cluster) {
+			a.edges.removeIf(e -> e.to.cluster == c);
+			searchCluster(a.x, a.y, c);
+			for (Node b : cluster) {
+				if (a == b) continue;
+				final int d = localDistance(b.x, b.y);
+				if (d != Integer.MAX_VALUE)
+					a.edges.add(new Edge(b, d));
+			}
+		}
+	}
+
+	//helper function for scanBorder(), scans one border for runs of tiles that are walkable on both sides
+	private void addEntrances(List<Node> transitions, int x0, int y0, int stepX, int stepY, int acrossX, int acrossY, int length) {
+		int runStart = -1;
+		for (int i = 0; i <= length; ++i) {
+			final int x = x0 + stepX*i, y = y0 + stepY*i;
+			final boolean open = i < length && level.walkable(x, y) && level.walkable(x + acrossX, y + acrossY);
+
+			if (open && runStart < 0) {
+				runStart = i;
+			} else if (!open && runStart >= 0) {
+				final int runEnd = i - 1;
+				if (runEnd - runStart + 1 >= LONG_ENTRANCE) {
+					addTransition(transitions, x0 + stepX*runStart, y0 + stepY*runStart, acrossX, acrossY);
+					addTransition(transitions, x0 + stepX*runEnd  , y0 + stepY*runEnd  , acrossX, acrossY);
+				} else {
+					final int mid = (runStart + runEnd)/2;
+					addTransition(transitions, x0 + stepX*mid, y0 + stepY*mid, acrossX, acrossY);
+				}
+				runStart = -1;
+			}
+		}
+	}
+
+	private void addTransition(List<Node> transitions, int x, int y, int acrossX, int acrossY) {
+		final Node a = nodeAt(x, y), b = nodeAt(x + acrossX, y + acrossY);
+		a.edges.add(new Edge(b, 1));
+		b.edges.add(new Edge(a, 1));
+		++a.transitions;
+		++b.transitions;
+		transitions.add(a);
+		transitions.add(b);
+	}
+
+	private Node nodeAt(int x, int y) {
+		final int key = y*level.LEVEL_WIDTH + x;
+		Node node = nodeAt.get(key);
+		if (node == null) {
+			if (freeIds.isEmpty()) {
+				node = new Node(nodes.size(), x, y, clusterOf(x, y));
+				nodes.add(node);
+			} else {
+				node = new Node(freeIds.remove(freeIds.size() - 1), x, y, clusterOf(x, y));
+				nodes.set(node.id, node);
+			}
+			clusterNodes.get(node.cluster).add(node);
+			nodeAt.put(key, node);
+		}
+		return node;
+	}
+
+	private void removeNode(Node node) {
+		clusterNodes.get(node.cluster).remove(node);
+		nodeAt.remove(node.y*level.LEVEL_WIDTH + node.x);
+		nodes.set(node.id, null);
+		freeIds.add(node.id);
+	}
+
+	private int clusterOf(int x, int y) {
+		return (y/CLUSTER_SIZE)*clustersX + x/CLUSTER_SIZE;
+	}
+
+	private int clusterRight(int cx) {
+		return Math.min((cx + 1)*CLUSTER_SIZE, level.LEVEL_WIDTH);
+	}
+
+	private int clusterBottom(int cy) {
+		return Math.min((cy + 1)*CLUSTER_SIZE, level.LEVEL_HEIGHT);
+	}
+
+	private static int heuristic(int x1, int y1, int x2, int y2) {
+		return Math.max(Math.abs(x2 - x1), Math.abs(y2 - y1));
+	}
+
+	//breadth-first search from (x, y) that never leaves the given cluster, results are read with localDistance()
+	private void searchCluster(int x, int y, int cluster) {
+		final int cx = cluster%clustersX, cy = cluster/clustersX;
+		localX0 = cx*CLUSTER_SIZE;
+		localY0 = cy*CLUSTER_SIZE;
+		localW = clusterRight(cx) - localX0;
+		localH = clusterBottom(cy) - localY0;
+
+		if (++localGeneration == 0) {
+			Arrays.fill(localStamp, 0);
+			localGeneration = 1;
+		}
+
+		//each tile is looked at from up to eight neighbours, so look its walkability up once, closing off the border
+		for (int ly = -1; ly <= localH; ++ly)
+			for (int lx = -1; lx <= localW; ++lx)
+				localOpen[(ly + 1)*LOCAL_STRIDE + lx + 1] = ly >= 0 && lx >= 0 && ly < localH && lx < localW && level.walkable(lx + localX0, ly + localY0);
+
+		int head = 0, tail = 0;
+		final int root = (y - localY0 + 1)*LOCAL_STRIDE + (x - localX0 + 1);
+		localDist[root] = 0;
+		localStamp[root] = localGeneration;
+		localQueue[tail++] = root;
+
+		while (head < tail) {
+			final int i = localQueue[head++];
+			for (int n = 0; n < 8; ++n) {
+				final int ni = i + LOCAL_STEP[n];
+				if (localStamp[ni] == localGeneration) continue;
+				if (!localOpen[ni]) continue;
+				if (n >= 4 && (!localOpen[i + NX[n]] || !localOpen[i + NY[n]*LOCAL_STRIDE])) continue;
+
+				localDist[ni] = localDist[i] + 1;
+				localStamp[ni] = localGeneration;
+				localQueue[tail++] = ni;
+			}
+		}
+	}
+
+	private int localDistance(int x, int y) {
+		final int lx = x - localX0, ly = y - localY0;
+		if (lx < 0 || ly < 0 || lx >= localW || ly >= localH) return Integer.MAX_VALUE;
+		final int i = (ly + 1)*LOCAL_STRIDE + lx + 1;
+		return localStamp[i] == localGeneration? localDist[i] : Integer.MAX_VALUE;
+	}
+
+	//walks downhill from (x, y) to the root of the last cluster search, returns level tile indices from root to (x, y)
+	private int[] tracePath(int x, int y) {
+		final int length = localDistance(x, y);
+		final int[] path = new int[length + 1];
+
+		int lx = x - localX0, ly = y - localY0;
+		for (int d = length; d >= 0; --d) {
+			path[d] = (ly + localY0)*level.LEVEL_WIDTH + (lx + localX0);
+			if (d == 0) break;
+			for (int n = 0; n < 8; ++n) {
+				final int nx = lx + NX[n], ny = ly + NY[n];
+				if (localDistance(nx + localX0, ny + localY0) == d - 1) {
+					//only step diagonally where the search itself could have
+					if (n >= 4 && (!level.walkable(nx + localX0, ly + localY0) || !level.walkable(lx + localX0, ny + localY0))) continue;
+					lx = nx;
+					ly = ny;
+					break;
+				}
+			}
+		}
+		return path;
+	}
+}
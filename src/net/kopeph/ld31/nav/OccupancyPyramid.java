@@ -0,0 +1,83 @@
+package net.kopeph.ld31.nav;
+
+import net.kopeph.ld31.Level;
+import net.kopeph.ld31.util.BitGrid;
+import processing.core.PApplet;
+
+/**
+ * A mip pyramid of wall occupancy, for stepping quickly through open space.
+ *
+ * Level 0 is the level's own wall bitset, and each level above it has one bit per 2x2 block of the level below,
+ * set if any tile in the block is a wall. Asking for the largest wall-free block around a point takes a handful
+ * of lookups, and every tile inside that block is then known to be clear without looking at it, so a ray crossing
+ * a big empty room costs a few block lookups instead of one wall test per tile.
+ */
+public class OccupancyPyramid {
+	private final BitGrid[] levels; //levels[k] has one bit per 2^k x 2^k block of tiles
+
+	public OccupancyPyramid(Level level) {
+		final int size = PApplet.max(level.LEVEL_WIDTH, level.LEVEL_HEIGHT);
+		int count = 1;
+		while (1 << count - 1 < size)
+			++count; //until a single block covers the whole level
+
+		levels = new BitGrid[count];
+		levels[0] = level.walls;
+		for (int k = 1; k < count; ++k) {
+			final BitGrid below = levels[k - 1];
+			final BitGrid grid = levels[k] = new BitGrid((below.width + 1)/2, (below.height + 1)/2);
+			for (int y = 0; y < grid.height; ++y)
+				for (int x = 0; x < grid.width; ++x)
+					if (occupied(below, x, y))
+						grid.set(x, y, true);
+		}
+	}
+
+	/** A copy of another level's pyramid, for a copy of that level with the given walls (see Level.copy()) */
+	public OccupancyPyramid(BitGrid walls, OccupancyPyramid original) {
+		levels = new BitGrid[original.levels.length];
+		levels[0] = walls;
+		for (int k = 1; k < levels.length; ++k)
+			levels[k] = original.levels[k].copy();
+	}
+
+	//returns true if any tile of the 2x2 block of the level below at (x, y) is a wall
+	private static boolean occupied(BitGrid below, int x, int y) {
+		final int x2 = PApplet.min(2*x + 1, below.width - 1), y2 = PApplet.min(2*y + 1, below.height - 1);
+		return below.anyInRow(2*y, 2*x, x2) || below.anyInRow(y2, 2*x, x2);
+	}
+
+	/** Redoes the blocks above the level's walls from (x1, y1) to (x2, y2) (inclusive) after they've been edited */
+	public void wallsChanged(int x1, int y1, int x2, int y2) {
+		for (int k = 1; k < levels.length; ++k)
+			for (int y = y1 >> k; y <= y2 >> k; ++y)
+				for (int x = x1 >> k; x <= x2 >> k; ++x)
+					levels[k].set(x, y, occupied(levels[k - 1], x, y));
+	}
+
+	/** @return the number of levels, including the full resolution one */
+	public int levels() {
+		return levels.length;
+	}
+
+	/**
+	 * Finds the largest aligned block of tiles around (x, y) with no walls in it
+	 * @param bounds filled in with the block's corners { x1, y1, x2, y2 } (inclusive, clipped to the level) if it's found
+	 * @return false if the tile itself is a wall or outside the level
+	 */
+	public boolean clearBlock(int x, int y, int[] bounds) {
+		final BitGrid walls = levels[0];
+		if (x < 0 || y < 0 || x >= walls.width || y >= walls.height || walls.get(x, y))
+			return false;
+
+		int k = 0;
+		while (k + 1 < levels.length && !levels[k + 1].get(x >> k + 1, y >> k + 1))
+			++k;
+
+		bounds[0] = x >> k << k;
+		bounds[1] = y >> k << k;
+		bounds[2] = PApplet.min(bounds[0] + (1 << k) - 1, walls.width  - 1);
+		bounds[3] = PApplet.min(bounds[1] + (1 << k) - 1, walls.height - 1);
+		return true;
+	}
+}
@@ -0,0 +1,108 @@
+package net.kopeph.ld31.nav;
+
+import java.util.Arrays;
+
+import net.kopeph.ld31.util.BitGrid;
+import net.kopeph.ld31.util.Vector2;
+
+/**
+ * The tiles an entity can be placed on, as runs along each row, so that one of them can be picked uniformly at random
+ * with a single draw instead of trying random tiles until one happens to do.
+ *
+ * A mask starts out as a level's walkable tiles (its floor eroded by Entity.SIZE, see Level), and distance constraints
+ * such as keeping the player out of reach of every enemy's light cut whole runs down at a time, so an entity placed
+ * from the result meets them by construction. Picking a tile is a binary search over the runs.
+ */
+public class SpawnMask {
+	private int count;
+	private int[] rows, starts, ends; //run i is tiles starts[i] to ends[i] - 1 of row rows[i]
+	private long[] before; //tiles in the runs before run i, with the total at the end
+
+	/** A mask of the set tiles of the given grid, e.g. a level's walkable tiles */
+	public SpawnMask(BitGrid tiles) {
+		this(tiles.height*2);
+		for (int y = 0; y < tiles.height; ++y) {
+			for (int x = tiles.nextSet(y, 0); x < tiles.width;) {
+				final int end = tiles.nextClear(y, x);
+				add(y, x, end);
+				x = tiles.nextSet(y, end);
+			}
+		}
+		finish();
+	}
+
+	private SpawnMask(int capacity) {
+		rows = new int[Math.max(capacity, 16)];
+		starts = new int[rows.length];
+		ends = new int[rows.length];
+	}
+
+	private void add(int y, int start, int end) {
+		if (count == rows.length) {
+			rows = Arrays.copyOf(rows, count*2);
+			starts = Arrays.copyOf(starts, count*2);
+			ends = Arrays.copyOf(ends, count*2);
+		}
+		rows[count] = y;
+		starts[count] = start;
+		ends[count] = end;
+		++count;
+	}
+
+	private void finish() {
+		before = new long[count + 1];
+		for (int i = 0; i < count; ++i)
+			before[i + 1] = before[i] + ends[i] - starts[i];
+	}
+
+	/** @return the number of tiles in the mask */
+	public long size() {
+		return before[count];
+	}
+
+	/**
+	 * @return the tiles of this mask that are at least sqrt(minDistanceSq) from (cx, cy), i.e. those where
+	 *         dx*dx + dy*dy >= minDistanceSq, found by cutting the disc out of each row it crosses
+	 */
+	public SpawnMask farFrom(int cx, int cy, long minDistanceSq) {
+		final SpawnMask result = new SpawnMask(count + 16);
+		for (int i = 0; i < count; ++i) {
+			final long dy = rows[i] - cy;
+			if (dy*dy >= minDistanceSq) {
+				result.add(rows[i], starts[i], ends[i]);
+				continue;
+			}
+
+			//the tiles of this row that are too close are cx - reach to cx + reach, where reach*reach < minDistanceSq - dy*dy
+			final long limit = minDistanceSq - dy*dy;
+			long reach = (long)Math.sqrt(limit);
+			while (reach*reach >= limit) --reach;
+			while ((reach + 1)*(reach + 1) < limit) ++reach;
+
+			final long cut1 = cx - reach, cut2 = cx + reach + 1; //[cut1, cut2) is taken out
+			if (starts[i] < cut1)
+				result.add(rows[i], starts[i], (int)Math.min(ends[i], cut1));
+			if (ends[i] > cut2)
+				result.add(rows[i], (int)Math.max(starts[i], cut2), ends[i]);
+		}
+		result.finish();
+		return result;
+	}
+
+	/**
+	 * @param r a random number from 0 (inclusive) to 1 (exclusive)
+	 * @return the tile that r picks out of the mask (which mustn't be empty), every tile being equally likely
+	 */
+	public Vector2 pick(double r) {
+		final long k = Math.min((long)(r*size()), size() - 1);
+
+		//the run that holds the k-th tile is the last one with no more than k tiles before it
+		int lo = 0, hi = count - 1;
+		while (lo < hi) {
+			final int mid = (lo + hi + 1) >>> 1;
+			if (before[mid] <= k) lo = mid;
+			else                  hi = mid - 1;
+		}
+		return new Vector2(starts[lo] + (k - before[lo]), rows[lo]);
+	}
+}
@@ -0,0 +1,244 @@
+package net.kopeph.ld31.nav;
+
+import java.util.Arrays;
+
+import net.kopeph.ld31.Level;
+import net.kopeph.ld31.util.BitGrid;
+
+/**
+ * The boundaries between a level's walls and floor, merged into as few axis-aligned segments as possible, with a
+ * uniform grid of buckets over them so that the segments near a point can be found without looking at the rest.
+ *
+ * Segments lie on tile corners: a horizontal segment at y runs along the top edge of row y, and a vertical segment
+ * at x along the left edge of column x. Each one also records which side of it the floor is on, since a light on
+ * the wall side of a segment can never see it before some other segment (see VisibilityPolygon).
+ */
+public class WallSegments {
+	public static final int BUCKET_SIZE = 32; //in pixels
+
+	//segment i runs from (x1[i], y1[i]) to (x2[i], y2[i]), with x1 <= x2 and y1 <= y2, and is either horizontal or vertical
+	//(indices of segments removed by an edit are reused, so only the ones near() returns are meaningful)
+	public int[] x1 = new int[64], y1 = new int[64], x2 = new int[64], y2 = new int[64];
+	public boolean[] floorAfter = new boolean[64]; //true if the floor is below a horizontal segment, or right of a vertical one
+	public int count; //segments currently in use
+
+	private int slots; //indices handed out so far
+	private int[] free = new int[16]; //indices of removed segments, waiting to be reused
+	private int freeCount;
+
+	private final int bucketsWide, bucketsHigh;
+	private final int[][] buckets; //the segments touching each bucket, in no particular order
+	private final int[] bucketSizes;
+
+	public WallSegments(Level level) {
+		final BitGrid walls = level.walls;
+		final int width = level.LEVEL_WIDTH, height = level.LEVEL_HEIGHT;
+
+		bucketsWide = width/BUCKET_SIZE + 1;
+		bucketsHigh = height/BUCKET_SIZE + 1;
+		buckets = new int[bucketsWide*bucketsHigh][];
+		bucketSizes = new int[bucketsWide*bucketsHigh];
+		for (int b = 0; b < buckets.length; ++b)
+			buckets[b] = new int[4];
+
+		for (int y = 0; y <= height; ++y)
+			extractRow(walls, y, 0, width);
+		for (int x = 0; x <= width; ++x)
+			extractColumn(walls, x, 0, height);
+	}
+
+	/** A copy of another level's segments, for a copy of that level (see Level.copy()) */
+	public WallSegments(WallSegments original) {
+		x1 = original.x1.clone();
+		y1 = original.y1.clone();
+		x2 = original.x2.clone();
+		y2 = original.y2.clone();
+		floorAfter = original.floorAfter.clone();
+		count = original.count;
+		slots = original.slots;
+		free = original.free.clone();
+		freeCount = original.freeCount;
+
+		bucketsWide = original.bucketsWide;
+		bucketsHigh = original.bucketsHigh;
+		buckets = new int[original.buckets.length][];
+		for (int b = 0; b < buckets.length; ++b)
+			buckets[b] = original.buckets[b].clone();
+		bucketSizes = original.bucketSizes.clone();
+	}
+
+	/**
+	 * Redoes the segments along the edges of the tiles from (ex1, ey1) to (ex2, ey2) (inclusive) after their walls have
+	 * been edited. Segments are merged along a whole row or column of edges, so each segment that touches the edited
+	 * tiles is taken out and its row or column is extracted again from the start of the first one to the end of the last.
+	 * @param bounds filled in with the corners { x1, y1, x2, y2 } (inclusive) of every segment taken out or put back
+	 */
+	public void wallsChanged(BitGrid walls, int ex1, int ey1, int ex2, int ey2, int[] bounds) {
+		int[] found = new int[64];
+		bounds[0] = ex1;
+		bounds[1] = ey1;
+		bounds[2] = ex2 + 1;
+		bounds[3] = ey2 + 1;
+
+		//horizontal edges, from the top of row ey1 to the bottom of row ey2
+		for (int y = ey1; y <= ey2 + 1; ++y) {
+			int from = ex1, to = ex2 + 1;
+			found = near(ex1, y, ex2 + 1, y, found);
+			for (int k = 0; found[k] >= 0; ++k) {
+				final int i = found[k];
+				if (y1[i] != y || y2[i] != y || x2[i] < ex1 || x1[i] > ex2 + 1) continue;
+				from = Math.min(from, x1[i]);
+				to = Math.max(to, x2[i]);
+				remove(i);
+			}
+			extractRow(walls, y, from, to);
+			bounds[0] = Math.min(bounds[0], from);
+			bounds[2] = Math.max(bounds[2], to);
+		}
+
+		//vertical edges, from the left of column ex1 to the right of column ex2
+		for (int x = ex1; x <= ex2 + 1; ++x) {
+			int from = ey1, to = ey2 + 1;
+			found = near(x, ey1, x, ey2 + 1, found);
+			for (int k = 0; found[k] >= 0; ++k) {
+				final int i = found[k];
+				if (x1[i] != x || x2[i] != x || y2[i] < ey1 || y1[i] > ey2 + 1) continue;
+				from = Math.min(from, y1[i]);
+				to = Math.max(to, y2[i]);
+				remove(i);
+			}
+			extractColumn(walls, x, from, to);
+			bounds[1] = Math.min(bounds[1], from);
+			bounds[3] = Math.max(bounds[3], to);
+		}
+	}
+
+	//adds the segments along the top edges of row y from column from to column to - 1, merged while the floor stays on the same side
+	private void extractRow(BitGrid walls, int y, int from, int to) {
+		int start = -1, side = 0;
+		for (int x = from; x <= to; ++x) {
+			final int s = x == to? 0 : side(wall(walls, x, y - 1), wall(walls, x, y));
+			if (s != side && start >= 0) {
+				add(start, y, x, y, side > 0);
+				start = -1;
+			}
+			if (s != 0 && start < 0) start = x;
+			side = s;
+		}
+	}
+
+	//adds the segments along the left edges of column x from row from to row to - 1
+	private void extractColumn(BitGrid walls, int x, int from, int to) {
+		int start = -1, side = 0;
+		for (int y = from; y <= to; ++y) {
+			final int s = y == to? 0 : side(wall(walls, x - 1, y), wall(walls, x, y));
+			if (s != side && start >= 0) {
+				add(x, start, x, y, side > 0);
+				start = -1;
+			}
+			if (s != 0 && start < 0) start = y;
+			side = s;
+		}
+	}
+
+	//anything outside the level counts as wall, so the level's border gets segments too
+	private static boolean wall(BitGrid walls, int x, int y) {
+		return x < 0 || y < 0 || x >= walls.width || y >= walls.height || walls.get(x, y);
+	}
+
+	//which side of an edge the floor is on: -1 before it, 1 after it, or 0 if it's not a boundary
+	private static int side(boolean before, boolean after) {
+		return before == after? 0 : after? -1 : 1;
+	}
+
+	private void add(int sx1, int sy1, int sx2, int sy2, boolean after) {
+		final int i;
+		if (freeCount > 0) {
+			i = free[--freeCount];
+		} else {
+			if (slots == x1.length) {
+				x1 = Arrays.copyOf(x1, slots*2);
+				y1 = Arrays.copyOf(y1, slots*2);
+				x2 = Arrays.copyOf(x2, slots*2);
+				y2 = Arrays.copyOf(y2, slots*2);
+				floorAfter = Arrays.copyOf(floorAfter, slots*2);
+			}
+			i = slots++;
+		}
+
+		x1[i] = sx1;
+		y1[i] = sy1;
+		x2[i] = sx2;
+		y2[i] = sy2;
+		floorAfter[i] = after;
+		++count;
+
+		for (int by = sy1/BUCKET_SIZE; by <= sy2/BUCKET_SIZE; ++by) {
+			for (int bx = sx1/BUCKET_SIZE; bx <= sx2/BUCKET_SIZE; ++bx) {
+				final int b = by*bucketsWide + bx;
+				if (bucketSizes[b] == buckets[b].length)
+					buckets[b] = Arrays.copyOf(buckets[b], bucketSizes[b]*2);
+				buckets[b][bucketSizes[b]++] = i;
+			}
+		}
+	}
+
+	private void remove(int i) {
+		for (int by = y1[i]/BUCKET_SIZE; by <= y2[i]/BUCKET_SIZE; ++by) {
+			for (int bx = x1[i]/BUCKET_SIZE; bx <= x2[i]/BUCKET_SIZE; ++bx) {
+				final int b = by*bucketsWide + bx;
+				final int[] bucket = buckets[b];
+				for (int k = 0; k < bucketSizes[b]; ++k) {
+					if (bucket[k] == i) {
+						bucket[k] = bucket[--bucketSizes[b]];
+						break;
+					}
+				}
+			}
+		}
+
+		if (freeCount == free.length)
+			free = Arrays.copyOf(free, freeCount*2);
+		free[freeCount++] = i;
+		--count;
+	}
+
+	/**
+	 * Finds every segment touching the given rectangle of pixels (and possibly a few more nearby)
+	 * @param found reused if it's big enough, must have room for at least one element
+	 * @return the indices of the segments, each once, in ascending order, followed by -1
+	 */
+	public int[] near(int rx1, int ry1, int rx2, int ry2, int[] found) {
+		final int bx1 = Math.max(rx1/BUCKET_SIZE, 0), bx2 = Math.min(rx2/BUCKET_SIZE, bucketsWide - 1);
+		final int by1 = Math.max(ry1/BUCKET_SIZE, 0), by2 = Math.min(ry2/BUCKET_SIZE, bucketsHigh - 1);
+		if (bx1 > bx2 || by1 > by2) {
+			found[0] = -1;
+			return found;
+		}
+
+		int n = 0;
+		for (int by = by1; by <= by2; ++by)
+			for (int bx = bx1; bx <= bx2; ++bx)
+				n += bucketSizes[by*bucketsWide + bx];
+		if (found.length <= n)
+			found = new int[n + 1];
+
+		n = 0;
+		for (int by = by1; by <= by2; ++by) {
+			for (int bx = bx1; bx <= bx2; ++bx) {
+				final int b = by*bucketsWide + bx;
+				System.arraycopy(buckets[b], 0, found, n, bucketSizes[b]);
+				n += bucketSizes[b];
+			}
+		}
+
+		//long segments are in more than one bucket, so sort and drop the repeats
+		Arrays.sort(found, 0, n);
+		int unique = 0;
+		for (int i = 0; i < n; ++i)
+			if (unique == 0 || found[i] != found[unique - 1])
+				found[unique++] = found[i];
+		found[unique] = -1;
+		return found;
+	}
+}
@@ -0,0 +1,16 @@
+package net.kopeph.ld31.spi;
+
+import net.kopeph.ld31.LevelFile;
+
+/**
+ * Referenced in:
+ * <li> net.kopeph.ld31.Level
+ * <li> net.kopeph.ld31.LevelInfo
+ * <li> net.kopeph.ld31.LevelParser
+ * <li> net.kopeph.convert.LevelConverter
+ */
+@FunctionalInterface
+public interface LevelLineHandler {
+	/** Called for each non-empty line of a text level file as soon as it's parsed, in order, with null if the line isn't an entity */
+	public void line(LevelFile.EntityRecord entity);
+}
@@ -0,0 +1,12 @@
+package net.kopeph.ld31.spi;
+
+/**
+ * Referenced in:
+ * <li> net.kopeph.ld31.entity.Enemy
+ * <li> net.kopeph.ld31.graphics.Trace
+ */
+@FunctionalInterface
+public interface RegionPredicate {
+	/** Called for pixels applicable to the method, fills bounds with a rectangle { x1, y1, x2, y2 } (inclusive) containing the pixel if there is one to report. */
+	public boolean around(int x, int y, int[] bounds);
+}
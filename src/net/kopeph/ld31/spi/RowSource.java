@@ -0,0 +1,12 @@
+package net.kopeph.ld31.spi;
+
+/**
+ * Referenced in:
+ * <li> net.kopeph.ld31.LevelFile
+ * <li> net.kopeph.ld31.graphics.LevelMipmap
+ */
+@FunctionalInterface
+public interface RowSource {
+	/** Copies row y of a level's tiles into dst, which is exactly as long as the level is wide */
+	public void row(int y, int[] dst);
+}
@@ -0,0 +1,11 @@
+package net.kopeph.ld31.spi;
+
+/**
+ * Referenced in:
+ * <li> net.kopeph.ld31.entity.Enemy
+ */
+@FunctionalInterface
+public interface SpanPredicate {
+	/** Called for each horizontal or vertical run of pixels applicable to the method, from line[from] to line[to] inclusive. */
+	public boolean on(int line, int from, int to);
+}
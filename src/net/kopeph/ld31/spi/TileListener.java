@@ -0,0 +1,17 @@
+package net.kopeph.ld31.spi;
+
+import net.kopeph.ld31.Level;
+
+/**
+ * Referenced in:
+ * <li> net.kopeph.ld31.Level
+ * <li> net.kopeph.ld31.graphics.Renderer
+ */
+@FunctionalInterface
+public interface TileListener {
+	/**
+	 * Called after the tiles of a level from (x1, y1) to (x2, y2) (inclusive) have been edited, once the level's own indexes are up to date.
+	 * The rectangle also covers any wall outlines (see WallSegments) that changed along with the tiles, which can reach further than they do.
+	 */
+	public void tilesChanged(Level level, int x1, int y1, int x2, int y2);
+}
@@ -0,0 +1,50 @@
+package net.kopeph.ld31.util;
+
+import java.util.Arrays;
+
+/** Tiles in a row-major int[] on the heap, for levels of ordinary size (see TileStore) */
+public final class ArrayTileStore implements TileStore {
+	private final int width, height;
+	private final int[] tiles;
+
+	public ArrayTileStore(int width, int height, int[] tiles) {
+		this.width = width;
+		this.height = height;
+		this.tiles = tiles;
+	}
+
+	@Override
+	public int width() {
+		return width;
+	}
+
+	@Override
+	public int height() {
+		return height;
+	}
+
+	@Override
+	public int get(int x, int y) {
+		return tiles[y*width + x];
+	}
+
+	@Override
+	public void set(int x, int y, int color) {
+		tiles[y*width + x] = color;
+	}
+
+	@Override
+	public void fillRow(int y, int x, int count, int color) {
+		Arrays.fill(tiles, y*width + x, y*width + x + count, color);
+	}
+
+	@Override
+	public void copyRow(int y, int x, int[] dst, int offset, int count) {
+		System.arraycopy(tiles, y*width + x, dst, offset, count);
+	}
+
+	@Override
+	public TileStore copy() {
+		return new ArrayTileStore(width, height, tiles.clone());
+	}
+}
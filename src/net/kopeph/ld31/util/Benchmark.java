@@ -0,0 +1,76 @@
+package net.kopeph.ld31.util;
+
+import java.util.Random;
+
+import net.kopeph.ld31.Level;
+import net.kopeph.ld31.entity.Enemy;
+import net.kopeph.ld31.graphics.Trace;
+
+/** Micro-benchmarks comparing optimized code paths against the originals they replace (run with --benchmark) */
+public class Benchmark {
+	private static final long SEED = 31; //fixed so that runs on the same level are comparable
+
+	private Benchmark() {
+		throw new AssertionError("No Instantiation of: " + getClass().getName()); //$NON-NLS-1$
+	}
+
+	/** Times LineOfSight against the per-pixel Trace.line() lambda that Enemy.checkPursuing() used to run */
+	public static void lineOfSight(Level level, int rounds) {
+		//random point pairs within enemy view range, plus every enemy looking at the player
+		final Random random = new Random(SEED);
+		final int pairs = 4096;
+		final int[] x1 = new int[pairs], y1 = new int[pairs], x2 = new int[pairs], y2 = new int[pairs];
+		for (int i = 0; i < pairs; ++i) {
+			x1[i] = random.nextInt(level.LEVEL_WIDTH);
+			y1[i] = random.nextInt(level.LEVEL_HEIGHT);
+			x2[i] = Math.max(0, Math.min(level.LEVEL_WIDTH  - 1, x1[i] + random.nextInt(481) - 240));
+			y2[i] = Math.max(0, Math.min(level.LEVEL_HEIGHT - 1, y1[i] + random.nextInt(481) - 240));
+		}
+
+		int mismatches = 0;
+		for (int i = 0; i < pairs; ++i)
+			if (traceClear(level, x1[i], y1[i], x2[i], y2[i]) != level.lineOfSight.clear(x1[i], y1[i], x2[i], y2[i]))
+				++mismatches;
+
+		int sink = 0; //keeps the JIT from optimizing the loops away
+		long traceTime = 0, losTime = 0, bulkTime = 0;
+		for (int r = 0; r < rounds; ++r) {
+			long start = System.nanoTime();
+			for (int i = 0; i < pairs; ++i)
+				if (traceClear(level, x1[i], y1[i], x2[i], y2[i])) ++sink;
+			for (Enemy e : level.enemies)
+				if (traceClear(level, e.x(), e.y(), level.player.x(), level.player.y())) ++sink;
+			traceTime += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < pairs; ++i)
+				if (level.lineOfSight.clear(x1[i], y1[i], x2[i], y2[i])) ++sink;
+			for (Enemy e : level.enemies)
+				if (level.lineOfSight.clear(e.x(), e.y(), level.player.x(), level.player.y())) ++sink;
+			losTime += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			boolean[] visible = level.lineOfSight.visibleFrom(level.enemies, level.player.x(), level.player.y());
+			if (visible.length > 0 && visible[0]) ++sink;
+			bulkTime += System.nanoTime() - start;
+		}
+
+		final int queries = pairs + level.enemies.size();
+		System.out.printf("LOS_BENCHMARK: %dx%d level, %d queries x %d rounds (%d)\n", //$NON-NLS-1$
+			level.LEVEL_WIDTH, level.LEVEL_HEIGHT, queries, rounds, sink);
+		System.out.printf("LOS_TRACE_LAMBDA: %.1f ns/query\n", traceTime/(double)(queries*rounds)); //$NON-NLS-1$
+		System.out.printf("LOS_BITSET_RUNS: %.1f ns/query\n", losTime/(double)(queries*rounds)); //$NON-NLS-1$
+		System.out.printf("LOS_BULK_ENEMIES: %.1f us/call\n", bulkTime/1000.0/rounds); //$NON-NLS-1$
+		System.out.printf("LOS_MISMATCHES: %d\n", mismatches); //$NON-NLS-1$
+		System.out.println();
+	}
+
+	//the original line of sight test from Enemy.checkPursuing()
+	private static boolean traceClear(Level level, int x1, int y1, int x2, int y2) {
+		return Trace.line(x1, y1, x2, y2, (x, y) -> {
+			if (level.tiles.get(x, y) != Level.FLOOR_NONE)
+				return true;
+			return false;
+		});
+	}
+}
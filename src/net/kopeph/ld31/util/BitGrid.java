@@ -0,0 +1,105 @@
+package net.kopeph.ld31.util;
+
+import java.util.Arrays;
+
+/**
+ * A 2D grid of booleans packed 64 to a long, row-major.
+ * Each row starts on a fresh word, so a horizontal run can be tested a whole word at a time.
+ */
+public final class BitGrid {
+	public final int width, height;
+	private final int stride; //longs per row
+	private final long[] words;
+
+	public BitGrid(int width, int height) {
+		this.width = width;
+		this.height = height;
+		stride = (width + 63) >>> 6;
+		words = new long[stride*height];
+	}
+
+	/** @return a grid of its own with the same bits, made in a single bulk copy */
+	public BitGrid copy() {
+		final BitGrid copy = new BitGrid(width, height);
+		System.arraycopy(words, 0, copy.words, 0, words.length);
+		return copy;
+	}
+
+	public boolean get(int x, int y) {
+		return (words[y*stride + (x >>> 6)] & 1L << x) != 0; //shifts on long only use the low 6 bits, so x & 63 is implied
+	}
+
+	public void set(int x, int y, boolean value) {
+		if (value) words[y*stride + (x >>> 6)] |=   1L << x;
+		else       words[y*stride + (x >>> 6)] &= ~(1L << x);
+	}
+
+	/** Sets every bit in the grid to the given value */
+	public void fill(boolean value) {
+		Arrays.fill(words, value? -1L : 0L); //bits past the end of each row are never read, so it doesn't matter that they get set
+	}
+
+	/** Sets bits x1 to x2 (inclusive, x1 <= x2) of row y to the given value, a word at a time */
+	public void fillRow(int y, int x1, int x2, boolean value) {
+		final int row = y*stride;
+		final int w1 = x1 >>> 6, w2 = x2 >>> 6;
+		for (int w = w1; w <= w2; ++w) {
+			long mask = -1L;
+			if (w == w1) mask &= -1L << x1;
+			if (w == w2) mask &= -1L >>> (63 - (x2 & 63));
+
+			if (value) words[row + w] |=  mask;
+			else       words[row + w] &= ~mask;
+		}
+	}
+
+	/** @return true if any bit in row y from x1 to x2 (inclusive, in either order) is set */
+	public boolean anyInRow(int y, int x1, int x2) {
+		if (x1 > x2) {
+			final int t = x1;
+			x1 = x2;
+			x2 = t;
+		}
+
+		final int row = y*stride;
+		final int w1 = x1 >>> 6, w2 = x2 >>> 6;
+		final long first = -1L << x1;          //bits x1..63 of the first word
+		final long last  = -1L >>> (63 - (x2 & 63)); //bits 0..x2 of the last word
+
+		if (w1 == w2)
+			return (words[row + w1] & first & last) != 0;
+
+		if ((words[row + w1] & first) != 0) return true;
+		for (int w = w1 + 1; w < w2; ++w)
+			if (words[row + w] != 0) return true;
+		return (words[row + w2] & last) != 0;
+	}
+
+	/** @return the first x at or after the given one where row y is set, or width if there isn't one, a word at a time */
+	public int nextSet(int y, int x) {
+		return next(y, x, 0L);
+	}
+
+	/** @return the first x at or after the given one where row y is clear, or width if there isn't one, a word at a time */
+	public int nextClear(int y, int x) {
+		return next(y, x, -1L);
+	}
+
+	//helper function for nextSet() and nextClear(), flip inverts the words so that either one looks for a set bit
+	private int next(int y, int x, long flip) {
+		if (x >= width) return width;
+		final int row = y*stride;
+		int w = x >>> 6;
+		long word = (words[row + w] ^ flip) & -1L << x;
+		while (word == 0) {
+			if (++w == stride) return width;
+			word = words[row + w] ^ flip;
+		}
+		return Math.min((w << 6) + Long.numberOfTrailingZeros(word), width); //bits past the end of the row don't count
+	}
+
+	/** @return the number of bytes used to store the bits */
+	public long sizeInBytes() {
+		return words.length*8L;
+	}
+}
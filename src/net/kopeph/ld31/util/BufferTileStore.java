@@ -0,0 +1,84 @@
+package net.kopeph.ld31.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Tiles in a direct buffer outside the heap, for huge levels (see TileStore).
+ * Direct buffers count against -XX:MaxDirectMemorySize rather than -Xmx, and are never moved or scanned by the
+ * garbage collector. A row copied out with copyRow() is a single bulk copy straight from native memory.
+ */
+public final class BufferTileStore implements TileStore {
+	private final int width, height;
+	private final IntBuffer tiles;
+	//a run of one color, for bulk writes with fillRow() (which is why writing isn't thread safe)
+	private int[] fill = new int[0];
+	private int fillColor, fillLength; //fill[0] to fill[fillLength - 1] hold fillColor
+
+	public BufferTileStore(int width, int height) {
+		if ((long)width*height*4 > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Level too big to store: " + width + "x" + height); //$NON-NLS-1$ //$NON-NLS-2$
+		this.width = width;
+		this.height = height;
+		tiles = ByteBuffer.allocateDirect(width*height*4).order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+
+	@Override
+	public int width() {
+		return width;
+	}
+
+	@Override
+	public int height() {
+		return height;
+	}
+
+	@Override
+	public int get(int x, int y) {
+		return tiles.get(y*width + x);
+	}
+
+	@Override
+	public void set(int x, int y, int color) {
+		tiles.put(y*width + x, color);
+	}
+
+	@Override
+	public void fillRow(int y, int x, int count, int color) {
+		if (fill.length < count)
+			fill = new int[Math.max(count, width)];
+		if (fillColor != color || fillLength < count) {
+			Arrays.fill(fill, 0, count, color);
+			fillColor = color;
+			fillLength = count;
+		}
+		final IntBuffer row = tiles.duplicate();
+		row.position(y*width + x);
+		row.put(fill, 0, count);
+	}
+
+	@Override
+	public void copyRow(int y, int x, int[] dst, int offset, int count) {
+		final IntBuffer row = tiles.duplicate(); //so concurrent readers don't fight over one position
+		row.position(y*width + x);
+		row.get(dst, offset, count);
+	}
+
+	@Override
+	public TileStore copy() {
+		final BufferTileStore copy = new BufferTileStore(width, height);
+		final IntBuffer all = tiles.duplicate();
+		all.clear();
+		copy.tiles.duplicate().put(all); //native memory to native memory, without going through the heap
+		return copy;
+	}
+
+	/** Copies a whole row of tiles in from src, starting at offset */
+	public void putRow(int y, int[] src, int offset) {
+		final IntBuffer row = tiles.duplicate();
+		row.position(y*width);
+		row.put(src, offset, width);
+	}
+}
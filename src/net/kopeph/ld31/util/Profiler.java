@@ -22,26 +22,31 @@ public class Profiler {
 		"PROFILE_SIZE", //$NON-NLS-1$
 	};
 
-	private final long[] startTimeMS = new long[PROFILE_SIZE];
-	private final long[]   endTimeMS = new long[PROFILE_SIZE];
+	private final long[] startTimeNS = new long[PROFILE_SIZE];
+	private final long[]   endTimeNS = new long[PROFILE_SIZE];
 
 	public void start(int task) {
-		startTimeMS[task] = System.currentTimeMillis();
+		startTimeNS[task] = System.nanoTime();
 	}
 
 	public void end(int task) {
-		endTimeMS[task] = System.currentTimeMillis();
+		endTimeNS[task] = System.nanoTime();
 	}
 
 	public void swap(int endTask, int startTask) {
-		long time = System.currentTimeMillis();
-		startTimeMS[startTask] = time;
-		  endTimeMS[  endTask] = time;
+		long time = System.nanoTime();
+		startTimeNS[startTask] = time;
+		  endTimeNS[  endTask] = time;
+	}
+
+	/** @return how long the task took the last time it was run, in milliseconds */
+	public double millis(int task) {
+		return (endTimeNS[task] - startTimeNS[task]) / 1000000.0;
 	}
 
 	public void report(PApplet context) {
 		for (int i = 0; i < PROFILE_SIZE; i++)
-			System.out.printf("%s: %.3f\n", description[i], (endTimeMS[i] - startTimeMS[i]) / 1000.0); //$NON-NLS-1$
+			System.out.printf("%s: %.3f\n", description[i], (endTimeNS[i] - startTimeNS[i]) / 1000000000.0); //$NON-NLS-1$
 		System.out.printf("FRAMERATE_CUR: %.2f\n", context.frameRate); //$NON-NLS-1$
 		System.out.println();
 	}
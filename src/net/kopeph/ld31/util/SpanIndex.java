@@ -0,0 +1,254 @@
+package net.kopeph.ld31.util;
+
+import java.util.Arrays;
+
+/**
+ * A level's tiles as runs of one color along each row.
+ *
+ * Most rows of a level are a handful of long runs of wall or of one floor color, so working a run at a time instead
+ * of a tile at a time (filling, copying, or finding which parts of the floor are joined up) does a small fraction of
+ * the work. Runs are stored by their first tile and color, row after row; a run ends where the next one in its row
+ * starts, or at the end of the row.
+ */
+public final class SpanIndex {
+	public final int width, height;
+	private final int[] rowStart; //the runs of row y are rowStart[y] to rowStart[y + 1] - 1
+	private int[] starts, colors; //with room to spare at the end, for edits that add runs
+	private int size;
+
+	private SpanIndex(int width, int height, int[] rowStart, int[] starts, int[] colors, int size) {
+		this.width = width;
+		this.height = height;
+		this.rowStart = rowStart;
+		this.starts = starts;
+		this.colors = colors;
+		this.size = size;
+	}
+
+	/** @return an index of its own with the same runs, e.g. for a copy of the level it indexes */
+	public SpanIndex copy() {
+		return new SpanIndex(width, height, rowStart.clone(), starts.clone(), colors.clone(), size);
+	}
+
+	/** @return the runs of the given row-major tiles */
+	public static SpanIndex of(int[] tiles, int width, int height) {
+		return build(width, height, Integer.MAX_VALUE, (y, row) -> System.arraycopy(tiles, y*width, row, 0, width));
+	}
+
+	/**
+	 * @param maxSpans the most runs worth indexing, e.g. so that a noisy image doesn't get an index bigger than itself
+	 * @return the runs of the given tiles, or null if there are more than maxSpans of them
+	 */
+	public static SpanIndex of(TileStore tiles, int maxSpans) {
+		return build(tiles.width(), tiles.height(), maxSpans, (y, row) -> tiles.copyRow(y, 0, row, 0, tiles.width()));
+	}
+
+	private interface RowSource {
+		void read(int y, int[] row);
+	}
+
+	private static SpanIndex build(int width, int height, int maxSpans, RowSource source) {
+		final int[] rowStart = new int[height + 1];
+		int[] starts = new int[Math.max(16, height*4)], colors = new int[starts.length];
+		final int[] row = new int[width];
+		int n = 0;
+
+		for (int y = 0; y < height; ++y) {
+			source.read(y, row);
+			rowStart[y] = n;
+			for (int x = 0; x < width; ++x) {
+				if (x > 0 && row[x] == row[x - 1]) continue;
+				if (n == maxSpans) return null;
+				if (n == starts.length) {
+					starts = Arrays.copyOf(starts, n*2);
+					colors = Arrays.copyOf(colors, n*2);
+				}
+				starts[n] = x;
+				colors[n] = row[x];
+				++n;
+			}
+		}
+		rowStart[height] = n;
+
+		return new SpanIndex(width, height, rowStart, Arrays.copyOf(starts, n), Arrays.copyOf(colors, n), n);
+	}
+
+	/** Indexes the tiles from (x1, y1) to (x2, y2) (inclusive) again after they've been edited, in place of their old runs */
+	public void update(TileStore tiles, int x1, int y1, int x2, int y2) {
+		//each row is scanned again from the start of the run before the edited tiles to the end of the run after them, so
+		//that runs join up or split at both ends, and the rest of its runs are copied over as they are
+		int[] newStarts = new int[64], newColors = new int[64];
+		final int[] rowRuns = new int[y2 - y1 + 1];
+		int[] row = new int[0];
+		int n = 0;
+
+		for (int y = y1; y <= y2; ++y) {
+			final int first = rowStart[y], last = rowStart[y + 1] - 1;
+			final int a = Math.max(find(x1, y) - 1, first), b = Math.min(find(x2, y) + 1, last);
+			final int from = starts[a], to = end(b, y);
+			if (n + (last - first + 1) + (to - from) > newStarts.length) {
+				newStarts = Arrays.copyOf(newStarts, (n + (last - first + 1) + (to - from))*2);
+				newColors = Arrays.copyOf(newColors, newStarts.length);
+			}
+			final int before = n;
+
+			System.arraycopy(starts, first, newStarts, n, a - first);
+			System.arraycopy(colors, first, newColors, n, a - first);
+			n += a - first;
+
+			if (row.length < to - from)
+				row = new int[to - from];
+			tiles.copyRow(y, from, row, 0, to - from);
+			for (int k = 0; k < to - from; ++k) {
+				if (k > 0 && row[k] == row[k - 1]) continue;
+				newStarts[n] = from + k;
+				newColors[n] = row[k];
+				++n;
+			}
+
+			System.arraycopy(starts, b + 1, newStarts, n, last - b);
+			System.arraycopy(colors, b + 1, newColors, n, last - b);
+			n += last - b;
+			rowRuns[y - y1] = n - before;
+		}
+
+		//runs after the edited rows move along if there are more or fewer of them now
+		final int from = rowStart[y1], to = rowStart[y2 + 1];
+		final int shift = n - (to - from);
+		if (shift != 0) {
+			if (size + shift > starts.length) {
+				starts = Arrays.copyOf(starts, (size + shift)*3/2);
+				colors = Arrays.copyOf(colors, starts.length);
+			}
+			System.arraycopy(starts, to, starts, from + n, size - to);
+			System.arraycopy(colors, to, colors, from + n, size - to);
+			size += shift;
+			for (int y = y2 + 1; y <= height; ++y)
+				rowStart[y] += shift;
+		}
+
+		System.arraycopy(newStarts, 0, starts, from, n);
+		System.arraycopy(newColors, 0, colors, from, n);
+		for (int y = y1 + 1; y <= y2; ++y)
+			rowStart[y] = rowStart[y - 1] + rowRuns[y - 1 - y1];
+	}
+
+	/** @return the total number of runs */
+	public int size() {
+		return size;
+	}
+
+	/** @return the index of the first run of row y, the runs of the row being first(y) to first(y + 1) - 1 */
+	public int first(int y) {
+		return rowStart[y];
+	}
+
+	/** @return the x of the first tile of run i */
+	public int start(int i) {
+		return starts[i];
+	}
+
+	/** @return the x just past the last tile of run i, which is in row y */
+	public int end(int i, int y) {
+		return i + 1 < rowStart[y + 1]? starts[i + 1] : width;
+	}
+
+	public int color(int i) {
+		return colors[i];
+	}
+
+	/** @return the index of the run of row y that contains x */
+	public int find(int x, int y) {
+		int lo = rowStart[y], hi = rowStart[y + 1] - 1;
+		while (lo < hi) {
+			final int mid = (lo + hi + 1) >>> 1;
+			if (starts[mid] <= x) lo = mid;
+			else                  hi = mid - 1;
+		}
+		return lo;
+	}
+
+	public int get(int x, int y) {
+		return colors[find(x, y)];
+	}
+
+	/**
+	 * Copies every step-th tile of row y, starting at x, into dst, a run at a time
+	 * @param count the number of tiles to copy, the last of which is x + (count - 1)*step (which must be inside the row)
+	 */
+	public void blit(int y, int x, int step, int[] dst, int offset, int count) {
+		int i = find(x, y);
+		int k = 0;
+		while (k < count) {
+			//copies from this run are the ones up to the first that lands on or past its end
+			final int end = end(i, y);
+			final int last = Math.min((end - x + step - 1)/step, count);
+			Arrays.fill(dst, offset + k, offset + last, colors[i]);
+			k = last;
+			++i;
+		}
+	}
+
+	/** Sets every tile of the given row-major tiles that lies in a run of one color to another color, a run at a time */
+	public void fill(int[] tiles, int match, int color) {
+		for (int y = 0; y < height; ++y)
+			for (int i = rowStart[y]; i < rowStart[y + 1]; ++i)
+				if (colors[i] == match)
+					Arrays.fill(tiles, y*width + starts[i], y*width + end(i, y), color);
+	}
+
+	/**
+	 * Labels the connected areas of everything but the background color, where runs in neighbouring rows are joined if
+	 * they share at least one column (i.e. tiles are joined to the tiles above, below, left and right of them)
+	 * @param labels filled in with the area each run belongs to, from 0, or -1 for background runs (must have room for size() runs)
+	 * @return the number of areas
+	 */
+	public int label(int background, int[] labels) {
+		//union-find over runs, joining each run to the ones it touches in the row above
+		for (int i = 0; i < size; ++i)
+			labels[i] = colors[i] == background? -1 : i;
+
+		for (int y = 1; y < height; ++y) {
+			int a = rowStart[y - 1];
+			final int aEnd = rowStart[y];
+			for (int b = rowStart[y]; b < rowStart[y + 1]; ++b) {
+				if (labels[b] < 0) continue;
+				final int bStart = starts[b], bEnd = end(b, y);
+
+				//skip the runs above that end before this one starts, then join every one that overlaps it
+				while (a < aEnd && end(a, y - 1) <= bStart) ++a;
+				for (int o = a; o < aEnd && starts[o] < bEnd; ++o)
+					if (labels[o] >= 0)
+						union(labels, o, b);
+			}
+		}
+
+		//then number the areas from 0 in the order their first runs appear
+		int areas = 0;
+		for (int i = 0; i < size; ++i) {
+			if (labels[i] < 0) continue;
+			final int root = root(labels, i);
+			labels[i] = root == i? -2 - areas++ : labels[root]; //roots come before the rest of their area, so they're always numbered first
+		}
+		for (int i = 0; i < size; ++i)
+			if (labels[i] < -1)
+				labels[i] = -2 - labels[i];
+		return areas;
+	}
+
+	//finds the root of a run's area, halving the path to it on the way
+	private static int root(int[] parents, int i) {
+		while (parents[i] >= 0 && parents[i] != i) {
+			if (parents[parents[i]] >= 0)
+				parents[i] = parents[parents[i]];
+			i = parents[i];
+		}
+		return i;
+	}
+
+	private static void union(int[] parents, int a, int b) {
+		final int ra = root(parents, a), rb = root(parents, b);
+		if (ra < rb) parents[rb] = ra;
+		else if (rb < ra) parents[ra] = rb;
+	}
+}
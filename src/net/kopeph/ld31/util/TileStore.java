@@ -0,0 +1,46 @@
+package net.kopeph.ld31.util;
+
+/**
+ * A level's tiles (one ARGB color per pixel), however they happen to be stored.
+ *
+ * Levels up to OFF_HEAP_THRESHOLD tiles keep them in an int[] on the heap (see ArrayTileStore), and anything bigger
+ * keeps them in a direct buffer outside it (see BufferTileStore), so that a huge custom level doesn't need a huge heap
+ * or make every garbage collection scan a gigabyte array. Hot paths read whole rows at a time with copyRow() rather
+ * than a tile at a time.
+ */
+public interface TileStore {
+	public static final long OFF_HEAP_THRESHOLD = 4096*4096; //levels with more tiles than this are stored outside the heap
+
+	public int width();
+	public int height();
+
+	public int get(int x, int y);
+	public void set(int x, int y, int color);
+
+	/** Sets count tiles of row y, starting at x, to the given color */
+	public void fillRow(int y, int x, int count, int color);
+
+	/** Copies count tiles of row y, starting at x, into dst starting at offset */
+	public void copyRow(int y, int x, int[] dst, int offset, int count);
+
+	/** @return a store of its own holding the same tiles, on or off the heap like this one, made in a single bulk copy */
+	public TileStore copy();
+
+	/** @return an empty store for a level of the given size, on or off the heap depending on its size */
+	public static TileStore allocate(int width, int height) {
+		if ((long)width*height > OFF_HEAP_THRESHOLD)
+			return new BufferTileStore(width, height);
+		return new ArrayTileStore(width, height, new int[width*height]);
+	}
+
+	/** @return a store holding the given row-major tiles, either the array itself or a copy of it off the heap */
+	public static TileStore of(int width, int height, int[] tiles) {
+		if ((long)width*height <= OFF_HEAP_THRESHOLD)
+			return new ArrayTileStore(width, height, tiles);
+
+		final BufferTileStore store = new BufferTileStore(width, height);
+		for (int y = 0; y < height; ++y)
+			store.putRow(y, tiles, y*width);
+		return store;
+	}
+}